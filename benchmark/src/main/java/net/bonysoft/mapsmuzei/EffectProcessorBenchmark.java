@@ -0,0 +1,62 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Local effects on a wallpaper sized image held in an int array, as they would be applied to a bitmap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EffectProcessorBenchmark {
+
+    @Param({"1024", "2048"})
+    public int size;
+
+    @Param({"0", "1", "2", "3", "4"})
+    public int preset;
+
+    private int[] image;
+    private ImageEffects effects;
+    private final EffectProcessor processor = new EffectProcessor();
+    private final EffectProcessor.Surface surface = new EffectProcessor.Surface() {
+        @Override
+        public void read(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(image, top * size, buffer, offset, rows * size);
+        }
+
+        @Override
+        public void write(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(buffer, offset, image, top * size, rows * size);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        image = new int[size * size];
+        Random rng = new Random(42);
+        for (int i = 0; i < image.length; i++) {
+            image[i] = 0xff000000 | rng.nextInt(0x1000000);
+        }
+        effects = ImageEffects.fromPreset(2, preset, size);
+    }
+
+    @Benchmark
+    public int process() {
+        processor.process(surface, size, size, effects);
+        return image[0];
+    }
+}
@@ -0,0 +1,62 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Learning and prediction of frequent places, with all the places in use and a mix of visits to known places and
+ * to new ones
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrequentPlacesBenchmark {
+
+    private static final int LOCATIONS = 4096;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+    private final FrequentPlaces places = new FrequentPlaces();
+    private final float[] latitudes = new float[LOCATIONS];
+    private final float[] longitudes = new float[LOCATIONS];
+    private final int[] predicted = new int[2];
+    private int next;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        Random rng = new Random(42);
+        for (int i = 0; i < LOCATIONS; i++) {
+            // Mostly a handful of places a few kilometres apart, sometimes anywhere in the city
+            boolean habitual = rng.nextInt(4) > 0;
+            int spot = rng.nextInt(habitual ? 8 : 1000);
+            latitudes[i] = 45.4064f + (spot % 32) * 0.01f + (float) rng.nextGaussian() * 0.0005f;
+            longitudes[i] = 11.8768f + (spot / 32) * 0.01f + (float) rng.nextGaussian() * 0.0005f;
+        }
+        for (int i = 0; i < LOCATIONS; i++) {
+            record();
+        }
+    }
+
+    @Benchmark
+    public int record() {
+        int i = next++ & (LOCATIONS - 1);
+        time += HOUR_MILLIS;
+        return places.record(latitudes[i], longitudes[i], time, (int) (time / HOUR_MILLIS % 24));
+    }
+
+    @Benchmark
+    public int predict() {
+        return places.predict(0, (int) (time / HOUR_MILLIS % 24), 4, time, predicted);
+    }
+}
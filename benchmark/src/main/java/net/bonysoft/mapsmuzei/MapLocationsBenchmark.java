@@ -0,0 +1,50 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Location validation, fallback and snapping
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapLocationsBenchmark {
+
+    private static final String[] FAKE_LOCATIONS = {
+        "41.889767,12.4926499", "48.8581706,2.294695", "25.1970379,55.2743848",
+        "40.689784,-74.045431", "52.5164541,13.3777558", "-33.8550533,151.2214656"
+    };
+
+    private final Random rng = new Random(42);
+
+    @Benchmark
+    public boolean validate() {
+        return MapLocations.isValid(45.4064f, 11.8768f);
+    }
+
+    @Benchmark
+    public float[] fakeLocation() {
+        return MapLocations.pickFakeLocation(FAKE_LOCATIONS, rng);
+    }
+
+    @Benchmark
+    public float[] snapToGrid() {
+        return MapLocations.snapToGrid(45.4064f, 11.8768f, 15, MapLocations.SNAP_PIXELS);
+    }
+
+    @Benchmark
+    public String cellKey() {
+        return MapGrid.cellKey(45.4064f, 11.8768f, 15, 128);
+    }
+}
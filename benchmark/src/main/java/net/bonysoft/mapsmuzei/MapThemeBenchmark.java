@@ -0,0 +1,59 @@
+package net.bonysoft.mapsmuzei;
+
+import org.kxml2.io.KXmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Theme catalog parsing and theme serialization
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapThemeBenchmark {
+
+    @Param({"3", "100", "5000"})
+    public int themes;
+
+    private String xml;
+    private MapTheme theme;
+
+    @Setup
+    public void setUp() {
+        xml = SyntheticThemes.xml(themes);
+        theme = SyntheticThemes.theme(themes - 1);
+    }
+
+    @Benchmark
+    public List<MapTheme> parseCatalog() throws XmlPullParserException, IOException {
+        XmlPullParser parser = new KXmlParser();
+        parser.setInput(new StringReader(xml));
+        return MapThemeParser.readThemes(parser);
+    }
+
+    @Benchmark
+    public MapTheme createTheme() {
+        return new MapTheme(theme.getName(), theme.getMapMode(), theme.getStyles(), true);
+    }
+
+    @Benchmark
+    public String themeQuery() {
+        return theme.toString();
+    }
+}
@@ -0,0 +1,56 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Perceptual hash of an image held in an int array, at the subsampled size used when publishing and at full size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PerceptualHashBenchmark {
+
+    @Param({"64", "2048"})
+    public int size;
+
+    private int[] image;
+    private final PerceptualHash hasher = new PerceptualHash();
+    private final EffectProcessor.Surface surface = new EffectProcessor.Surface() {
+        @Override
+        public void read(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(image, top * size, buffer, offset, rows * size);
+        }
+
+        @Override
+        public void write(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(buffer, offset, image, top * size, rows * size);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        image = new int[size * size];
+        Random rng = new Random(42);
+        for (int i = 0; i < image.length; i++) {
+            image[i] = 0xff000000 | rng.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public long hash() {
+        return hasher.compute(surface, size, size);
+    }
+}
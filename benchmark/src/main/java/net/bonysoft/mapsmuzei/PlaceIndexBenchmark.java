@@ -0,0 +1,69 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Nearest place queries on indexes of places spread uniformly over the globe
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlaceIndexBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int places;
+
+    private File file;
+    private PlaceIndex index;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("places", ".idx");
+        PlaceIndexWriter writer = new PlaceIndexWriter();
+        Random rng = new Random(42);
+        for (int i = 0; i < places; i++) {
+            float latitude = (float) Math.toDegrees(Math.asin(2 * rng.nextDouble() - 1));
+            float longitude = (float) (rng.nextDouble() * 360 - 180);
+            writer.add(latitude, longitude, "Place " + i, "Region " + (i % 200), i % 100 == 0);
+        }
+        writer.finish(file);
+        index = PlaceIndex.open(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int findNearest() {
+        return index.findNearest((float) (random.nextDouble() * 180 - 90), (float) (random.nextDouble() * 360 - 180));
+    }
+
+    @Benchmark
+    public String findNearestName() {
+        return index.getName(index.findNearest(45.4064f, 11.8768f));
+    }
+
+    @Benchmark
+    public int getRandomLandmark() {
+        return index.getRandomLandmark(random);
+    }
+}
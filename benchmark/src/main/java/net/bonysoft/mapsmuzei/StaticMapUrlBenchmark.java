@@ -0,0 +1,48 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * URL building for the Static Maps image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StaticMapUrlBenchmark {
+
+    private static final String API_KEY = "AIzaSyBenchmarkBenchmarkBenchmarkBench";
+
+    private MapTheme standardTheme;
+    private MapTheme customTheme;
+
+    @Setup
+    public void setUp() {
+        standardTheme = MapTheme.getStandardTheme(MapTheme.MODE_MAP, true);
+        customTheme = SyntheticThemes.theme(7);
+    }
+
+    @Benchmark
+    public String standardThemeUrl() {
+        return StaticMapUrl.buildImageUrl(45.4064f, 11.8768f, 15, ImageSpec.DEFAULT, standardTheme, API_KEY);
+    }
+
+    @Benchmark
+    public String customThemeUrl() {
+        return StaticMapUrl.buildImageUrl(45.4064f, 11.8768f, 15, ImageSpec.DEFAULT, customTheme, API_KEY);
+    }
+
+    @Benchmark
+    public String intentUrl() {
+        return StaticMapUrl.buildIntentUrl(45.4064f, 11.8768f, 15);
+    }
+}
@@ -0,0 +1,53 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates theme catalogs of arbitrary size, with styles similar to the bundled ones
+ */
+public class SyntheticThemes {
+
+    private static final String[] STYLES = {
+        "feature:poi%7Clightness:-50",
+        "feature:landscape%7Clightness:-100",
+        "feature:road%7Chue:0xff00ff",
+        "feature:water%7Clightness:-50",
+        "feature:all%7Celement:labels%7Cinvert_lightness:true",
+        "feature:all%7Celement:labels.text.fill%7Ccolor:0xffffff",
+        "feature:road%7Celement:labels.text.stroke%7Ccolor:0xcf02cf",
+        "feature:administrative%7Celement:labels.text.stroke%7Ccolor:0x009cff"
+    };
+
+    public static String themeName(int index) {
+        return "Theme " + index;
+    }
+
+    public static List<String> styles(int index) {
+        List<String> styles = new ArrayList<String>();
+        for (int i = 0; i <= index % STYLES.length; i++) {
+            styles.add(STYLES[(index + i) % STYLES.length]);
+        }
+        return styles;
+    }
+
+    public static MapTheme theme(int index) {
+        return new MapTheme(themeName(index), MapTheme.MODE_MAP, styles(index), false);
+    }
+
+    /**
+     * @return a themes XML document with the given number of themes, in the same format as map_themes.xml
+     */
+    public static String xml(int themes) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<MapThemes>\n");
+        for (int i = 0; i < themes; i++) {
+            sb.append("    <MapTheme name=\"").append(themeName(i)).append("\" mapType=\"")
+              .append(MapTheme.MODES[i % MapTheme.MODES.length]).append("\">\n");
+            for (String style : styles(i)) {
+                sb.append("        <MapStyle>").append(style).append("</MapStyle>\n");
+            }
+            sb.append("    </MapTheme>\n");
+        }
+        return sb.append("</MapThemes>\n").toString();
+    }
+}
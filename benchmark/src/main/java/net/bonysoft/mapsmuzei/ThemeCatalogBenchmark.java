@@ -0,0 +1,73 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Lookups in a compiled theme catalog. Their cost should not depend on the catalog size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThemeCatalogBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int themes;
+
+    private File file;
+    private ThemeCatalog catalog;
+    private String name;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("themes", ".cat");
+        ThemeCatalogWriter writer = new ThemeCatalogWriter(file);
+        for (int i = 0; i < themes; i++) {
+            writer.add(SyntheticThemes.themeName(i), MapTheme.MODE_MAP, SyntheticThemes.styles(i));
+        }
+        writer.finish();
+        catalog = ThemeCatalog.open(file);
+        name = SyntheticThemes.themeName(themes / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public ThemeCatalog open() throws IOException {
+        return ThemeCatalog.open(file);
+    }
+
+    @Benchmark
+    public MapTheme getById() {
+        return catalog.getById(themes - 1);
+    }
+
+    @Benchmark
+    public MapTheme getByName() {
+        return catalog.getByName(name);
+    }
+
+    @Benchmark
+    public MapTheme getRandom() {
+        return catalog.getRandom(random);
+    }
+}
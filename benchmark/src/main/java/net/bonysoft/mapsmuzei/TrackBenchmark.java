@@ -0,0 +1,69 @@
+package net.bonysoft.mapsmuzei;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Recording, simplification and encoding of synthetic random walk tracks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackBenchmark {
+
+    private static final int MAX_PATH_LENGTH = 7000;
+
+    @Param({"1000", "100000", "2000000"})
+    public int points;
+
+    private TrackBuffer track;
+    private final TrackBuffer recording = new TrackBuffer(4096);
+    private final PathSimplifier simplifier = new PathSimplifier();
+    private final TrackOverlay overlay = new TrackOverlay();
+    private long time;
+
+    @Setup
+    public void setUp() {
+        track = new TrackBuffer(points);
+        Random rng = new Random(42);
+        float latitude = 45.4064f;
+        float longitude = 11.8768f;
+        double heading = 0;
+        for (int i = 0; i < points; i++) {
+            // A walker which mostly keeps its direction, moving a few meters per fix
+            heading += rng.nextGaussian() * 0.3;
+            latitude += (float) (Math.cos(heading) * 0.00003);
+            longitude += (float) (Math.sin(heading) * 0.00004);
+            track.add(latitude, longitude, i * 1000L);
+        }
+    }
+
+    @Benchmark
+    public int record() {
+        time += 1000;
+        recording.add(45.4064f, 11.8768f, time);
+        return recording.size();
+    }
+
+    @Benchmark
+    public int simplify() {
+        return simplifier.simplify(track, 0, track.size(), 0.0001);
+    }
+
+    @Benchmark
+    public String encodeWithinBudget() {
+        return overlay.encode(track, 0, 15, MAX_PATH_LENGTH);
+    }
+}
@@ -0,0 +1,354 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Soak test of the refresh path: drives thousands of refreshes over random locations, themes, zooms, image sizes
+ * and WiFi states against a local {@link StandInServer}, going through the same steps as MapsArtSource (location
+ * checks, grid snapping, track overlay, URL building, provider ranking and failover, circuit breakers, daily
+ * budgets and retry backoff), and fails if a refresh gets slower, allocates more or makes more requests than its
+ * budget. Every step runs the production classes with the production limits, only the Android glue around them
+ * (preferences, image cache, Muzei) is left out.
+ * <p/>
+ * Time is simulated, each refresh happening a refresh interval after the previous one, while the requests are
+ * real. Run with "gradlew :benchmark:soak", the settings can be changed with system properties, e.g.
+ * -Dsoak.refreshes=10000 -Dsoak.errorRate=0.2
+ */
+public class RefreshSoak {
+
+    // Settings of the simulated device, the stand-in server answers much faster than the real services
+    private static final long REFRESH_INTERVAL_MILLIS = 15 * 60 * 1000L;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 500;
+    private static final int THEMES = 64;
+    private static final int TRACK_FIXES = 4096;
+
+    private static final RetryPolicy RETRY_POLICY = RetryPolicy.forRefresh(REFRESH_INTERVAL_MILLIS);
+
+    private static final String[] FAKE_LOCATIONS = {"41.889767,12.4926499", "48.8581706,2.294695",
+                                                    "25.1970379,55.2743848"};
+
+    private final Random random;
+    private final StandInServer server;
+    private final List<MapProvider> providers = new ArrayList<MapProvider>();
+    private final Map<MapProvider, UpstreamPolicy> guards = new HashMap<MapProvider, UpstreamPolicy>();
+    private final ProviderSelector selector = new ProviderSelector();
+    private final UpstreamPolicy geocodeGuard;
+    private final TrackBuffer track = new TrackBuffer(TRACK_FIXES);
+    private final TrackOverlay overlay = new TrackOverlay();
+    private final byte[] buffer = new byte[16 * 1024];
+
+    private long now = System.currentTimeMillis();
+    private float latitude = 45.4064f;
+    private float longitude = 11.8768f;
+    private String lastToken;
+    private int failedAttempts;
+
+    // Results
+    private int published;
+    private int skippedNoWiFi;
+    private int skippedSameMap;
+    private int failed;
+    private int failovers;
+    private int geocodeFailures;
+
+    public static void main(String[] args) throws Exception {
+        int refreshes = Integer.getInteger("soak.refreshes", 2000);
+        long seed = Long.getLong("soak.seed", 42);
+        StandInServer server = new StandInServer(Long.getLong("soak.latencyMillis", 5),
+                                                 getDouble("soak.errorRate", 0.05),
+                                                 getDouble("soak.throttleRate", 0.01),
+                                                 getDouble("soak.slowRate", 0.01),
+                                                 Long.getLong("soak.slowMillis", 1500),
+                                                 seed);
+        server.start();
+        Budget budget = new Budget(Long.getLong("soak.maxP99Millis", 1500),
+                                   Long.getLong("soak.maxMeanKilobytes", 256),
+                                   Integer.getInteger("soak.maxRequests", 3),
+                                   getDouble("soak.maxFailureRate", 0.01));
+        List<String> violations;
+        try {
+            violations = new RefreshSoak(server, seed).run(refreshes, budget);
+        }
+        finally {
+            server.stop();
+        }
+        if (!violations.isEmpty()) {
+            for (String violation : violations) {
+                System.err.println("Budget exceeded: " + violation);
+            }
+            System.exit(1);
+        }
+        System.out.println("All budgets met");
+    }
+
+    public RefreshSoak(StandInServer server, long seed) {
+        this.server = server;
+        this.random = new Random(seed);
+        addProvider(new LocalStaticMapsProvider(server.getBaseUrl() + StandInServer.IMAGE_PATH),
+                    UpstreamPolicy.STATIC_MAPS_DAILY_BUDGET);
+        addProvider(new OsmStaticMapProvider(server.getBaseUrl() + StandInServer.IMAGE_PATH),
+                    UpstreamPolicy.OSM_STATIC_DAILY_BUDGET);
+        geocodeGuard = new UpstreamPolicy("geocoder", UpstreamPolicy.GEOCODER_DAILY_BUDGET, now);
+        for (int i = 0; i < track.capacity(); i++) {
+            walk();
+            track.add(latitude, longitude, i * 60 * 1000L);
+        }
+    }
+
+    /**
+     * @return the budgets which have been exceeded, if any
+     */
+    public List<String> run(int refreshes, Budget budget) {
+        com.sun.management.ThreadMXBean threads = getThreadBean();
+        long threadId = Thread.currentThread().getId();
+        long[] millis = new long[refreshes];
+        long[] allocatedBytes = new long[refreshes];
+        int maxRequests = 0;
+        List<String> violations = new ArrayList<String>();
+
+        for (int i = 0; i < refreshes; i++) {
+            int requestsBefore = server.getRequests();
+            long allocatedBefore = threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            refresh();
+            millis[i] = (System.nanoTime() - start) / 1000000;
+            allocatedBytes[i] = threads != null ? threads.getThreadAllocatedBytes(threadId) - allocatedBefore : 0;
+            int requests = server.getRequests() - requestsBefore;
+            maxRequests = Math.max(maxRequests, requests);
+            if (requests > budget.maxRequests) {
+                violations.add("refresh " + i + " made " + requests + " requests");
+            }
+        }
+
+        long meanKilobytes = mean(allocatedBytes) / 1024;
+        Arrays.sort(millis);
+        long p99 = millis[(int) Math.min(refreshes - 1, Math.ceil(refreshes * 0.99) - 1)];
+        double failureRate = failed / (double) refreshes;
+        System.out.println(String.format(Locale.US,
+            "%d refreshes: %d published, %d skipped without WiFi, %d skipped as the same map, %d failed, "
+            + "%d failovers, %d geocode failures, %d requests",
+            refreshes, published, skippedNoWiFi, skippedSameMap, failed, failovers, geocodeFailures,
+            server.getRequests()));
+        System.out.println(String.format(Locale.US,
+            "Latency: p50 %dms, p90 %dms, p99 %dms, max %dms; allocated per refresh: mean %dKB%s; "
+            + "max requests per refresh: %d",
+            millis[refreshes / 2], millis[(int) (refreshes * 0.9)], p99, millis[refreshes - 1], meanKilobytes,
+            threads != null ? "" : " (not measured)", maxRequests));
+        System.out.println(selector.dump(now));
+
+        if (p99 > budget.maxP99Millis) {
+            violations.add("p99 latency " + p99 + "ms > " + budget.maxP99Millis + "ms");
+        }
+        if (meanKilobytes > budget.maxMeanKilobytes) {
+            violations.add("mean allocation " + meanKilobytes + "KB > " + budget.maxMeanKilobytes + "KB");
+        }
+        if (failureRate > budget.maxFailureRate) {
+            violations.add(String.format(Locale.US, "failure rate %.3f > %.3f", failureRate, budget.maxFailureRate));
+        }
+        return violations;
+    }
+
+    private void refresh() {
+        now += failedAttempts > 0 ? RETRY_POLICY.getDelay(failedAttempts, random) : REFRESH_INTERVAL_MILLIS;
+        boolean isWiFiConnected = random.nextInt(10) > 1;
+        boolean wifiOnly = random.nextInt(4) == 0;
+        if (wifiOnly && !isWiFiConnected) {
+            skippedNoWiFi++;
+            return;
+        }
+
+        int zoom = 8 + random.nextInt(11);
+        MapTheme style = SyntheticThemes.theme(random.nextInt(THEMES));
+        ImageSpec spec = ImageSpec.choose(random.nextBoolean() ? 1920 : 2560, random.nextBoolean() ? 3f : 4f, 64,
+                                          !isWiFiConnected,
+                                          random.nextInt(8) == 0, false);
+        // Mostly still or moving a little, sometimes without a location at all
+        if (random.nextInt(4) == 0) {
+            walk();
+        }
+        LocationSnapshot location = random.nextInt(20) == 0
+                                    ? new LocationSnapshot(0, 0, 0, 0)
+                                    : new LocationSnapshot(latitude, longitude, 20, now - random.nextInt(600000));
+        float[] centre = location.isUsableFor(zoom, REFRESH_INTERVAL_MILLIS, now)
+                         ? new float[]{location.latitude, location.longitude}
+                         : MapLocations.pickFakeLocation(FAKE_LOCATIONS, random);
+        centre = MapLocations.snapToGrid(centre[0], centre[1], zoom, MapLocations.SNAP_PIXELS);
+
+        String path = null;
+        if (random.nextInt(4) == 0) {
+            String baseUrl = StaticMapUrl.buildImageUrl(centre[0], centre[1], zoom, spec, style, "key");
+            path = overlay.encode(track, 0, zoom, StaticMapUrl.getPathBudget(baseUrl));
+        }
+        String token = MapLocations.buildToken(centre[0], centre[1], zoom, spec, style, path);
+        if (token.equals(lastToken)) {
+            skippedSameMap++;
+            return;
+        }
+
+        MapProvider[] ranked = selector.rank(providers, style, null, now);
+        boolean success = false;
+        for (int i = 0; i < ranked.length && !success; i++) {
+            MapProvider provider = ranked[i];
+            if (i > 0) {
+                failovers++;
+            }
+            UpstreamPolicy guard = guards.get(provider);
+            long start = System.currentTimeMillis();
+            try {
+                guard.acquire(now);
+                download(provider.buildImageUrl(centre[0], centre[1], zoom, spec, style, path));
+                guard.onSuccess();
+                selector.onSuccess(provider, System.currentTimeMillis() - start, now);
+                success = true;
+            } catch (UpstreamUnavailableException e) {
+                // Not a failure of the provider, as in MapsArtSource
+            } catch (IOException e) {
+                guard.onFailure(e, now);
+                selector.onFailure(provider, System.currentTimeMillis() - start, now);
+            }
+        }
+        if (!success) {
+            failed++;
+            failedAttempts++;
+            return;
+        }
+        failedAttempts = 0;
+
+        try {
+            geocodeGuard.acquire(now);
+            download(server.getBaseUrl() + StandInServer.GEOCODE_PATH + "?latlng=" + centre[0] + "," + centre[1]);
+            geocodeGuard.onSuccess();
+        } catch (UpstreamUnavailableException e) {
+            // Published without a description
+        } catch (IOException e) {
+            geocodeGuard.onFailure(e, now);
+            geocodeFailures++;
+        }
+        lastToken = token;
+        published++;
+    }
+
+    /**
+     * Download the response, keeping only its size as the image cache does not matter here
+     */
+    private int download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                String retryAfter = connection.getHeaderField("Retry-After");
+                // On the simulated clock, as the guards are
+                long retryAt = retryAfter != null ? now + Long.parseLong(retryAfter) * 1000 : 0;
+                throw new HttpStatusException(status, retryAt, "Unexpected response for " + url);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                int total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                }
+                return total;
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private void addProvider(MapProvider provider, int dailyBudget) {
+        providers.add(provider);
+        guards.put(provider, new UpstreamPolicy(provider.getName(), dailyBudget, now));
+    }
+
+    private void walk() {
+        latitude += (float) (random.nextGaussian() * 0.001);
+        longitude += (float) (random.nextGaussian() * 0.001);
+    }
+
+    private static long mean(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return values.length > 0 ? total / values.length : 0;
+    }
+
+    private static double getDouble(String property, double fallback) {
+        String value = System.getProperty(property);
+        return value != null ? Double.parseDouble(value) : fallback;
+    }
+
+    /**
+     * @return the bean measuring the allocations of a thread, or null if the JVM does not support it
+     */
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * The limits a refresh must stay within
+     */
+    public static class Budget {
+        final long maxP99Millis;
+        final long maxMeanKilobytes;
+        final int maxRequests;
+        final double maxFailureRate;
+
+        /**
+         * @param maxRequests the most requests a single refresh can make, images and geocoding included
+         * @param maxFailureRate the fraction of refreshes which can fail to download the map
+         */
+        public Budget(long maxP99Millis, long maxMeanKilobytes, int maxRequests, double maxFailureRate) {
+            this.maxP99Millis = maxP99Millis;
+            this.maxMeanKilobytes = maxMeanKilobytes;
+            this.maxRequests = maxRequests;
+            this.maxFailureRate = maxFailureRate;
+        }
+    }
+
+    /**
+     * The Static Maps provider, with the requests sent to the stand-in server
+     */
+    private static class LocalStaticMapsProvider extends GoogleStaticMapsProvider {
+        private static final String REMOTE_URL = "https://maps.googleapis.com/maps/api/staticmap";
+
+        private final String localUrl;
+
+        LocalStaticMapsProvider(String localUrl) {
+            super("key");
+            this.localUrl = localUrl;
+        }
+
+        @Override
+        public String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style,
+                                    String path) {
+            return super.buildImageUrl(latitude, longitude, zoom, spec, style, path).replace(REMOTE_URL, localUrl);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.bonysoft.mapsmuzei;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP server standing in for the map image servers and the geocoding backend, with configurable latency
+ * and injected errors: 500 responses, 429 responses with a Retry-After header, and responses which are much
+ * slower than usual
+ */
+public class StandInServer {
+
+    public static final String IMAGE_PATH = "/staticmap";
+    public static final String GEOCODE_PATH = "/geocode";
+
+    private static final int IMAGE_BYTES = 24 * 1024;
+    private static final int THREADS = 4;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private final byte[] image = new byte[IMAGE_BYTES];
+    private final byte[] place = "{\"title\":\"Padova\",\"description\":\"Veneto, Italy\"}".getBytes();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Random random;
+
+    private final long latencyMillis;
+    private final double errorRate;
+    private final double throttleRate;
+    private final double slowRate;
+    private final long slowMillis;
+
+    /**
+     * @param errorRate fraction of the requests answered with a 500
+     * @param throttleRate fraction of the requests answered with a 429 and a Retry-After of one minute
+     * @param slowRate fraction of the requests answered after slowMillis instead of latencyMillis
+     */
+    public StandInServer(long latencyMillis, double errorRate, double throttleRate, double slowRate, long slowMillis,
+                         long seed) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.slowRate = slowRate;
+        this.slowMillis = slowMillis;
+        random = new Random(seed);
+        random.nextBytes(image);
+        // JPEG magic number, as the real servers
+        image[0] = (byte) 0xff;
+        image[1] = (byte) 0xd8;
+
+        // Otherwise headers and body are delayed by Nagle's algorithm, adding ~40ms to each request
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext(IMAGE_PATH, new StandInHandler(image, "image/jpeg"));
+        server.createContext(GEOCODE_PATH, new StandInHandler(place, "application/json"));
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the base URL of the server, without a trailing slash
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of requests received so far
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    private synchronized double nextRandom() {
+        return random.nextDouble();
+    }
+
+    private class StandInHandler implements HttpHandler {
+        private final byte[] body;
+        private final String contentType;
+
+        StandInHandler(byte[] body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                double outcome = nextRandom();
+                Thread.sleep(nextRandom() < slowRate ? slowMillis : latencyMillis);
+                if (outcome < errorRate) {
+                    exchange.sendResponseHeaders(500, -1);
+                }
+                else if (outcome < errorRate + throttleRate) {
+                    exchange.getResponseHeaders().set("Retry-After", "60");
+                    exchange.sendResponseHeaders(429, -1);
+                }
+                else {
+                    exchange.getResponseHeaders().set("Content-Type", contentType);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Stops calling an upstream after too many consecutive failures. Once the breaker has been open for a while a
+ * single trial request is let through: if it succeeds the breaker closes, otherwise it opens again.
+ * All the methods take the current time, so that the state can be persisted and tested without waiting.
+ */
+public class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private int failures;
+    private long openUntil;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, 0, 0);
+    }
+
+    /**
+     * Restore a breaker from a previously saved state
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, int failures, long openUntil) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.failures = failures;
+        this.openUntil = openUntil;
+    }
+
+    /**
+     * @return true if a request can be made now. When half open, only the first caller is allowed
+     */
+    public synchronized boolean allowRequest(long now) {
+        if (now < openUntil) {
+            return false;
+        }
+        if (failures >= failureThreshold) {
+            // Half open: let this request through, and block the others until it has completed
+            openUntil = now + openMillis;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        openUntil = 0;
+    }
+
+    public synchronized void onFailure(long now) {
+        failures++;
+        if (failures >= failureThreshold) {
+            openUntil = Math.max(openUntil, now + openMillis);
+        }
+    }
+
+    /**
+     * The upstream asked us to slow down (HTTP 429 or 503 with Retry-After): don't call it before the given time
+     */
+    public synchronized void openUntil(long until) {
+        failures = Math.max(failures, failureThreshold);
+        openUntil = Math.max(openUntil, until);
+    }
+
+    public synchronized boolean isOpen(long now) {
+        return now < openUntil;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    public synchronized long getOpenUntil() {
+        return openUntil;
+    }
+}
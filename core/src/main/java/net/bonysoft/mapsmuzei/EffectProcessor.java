@@ -0,0 +1,253 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Applies {@link ImageEffects} to an ARGB image in horizontal bands, so that the working memory does not depend
+ * on the height of the image; the image itself is held by the {@link Surface}. The band buffers are reused between
+ * images: once they are big enough for the widest image, processing does not allocate.
+ *
+ * The blur needs the original pixels of the rows around each band: the rows below are read with the band, the
+ * original rows above are kept from the previous band, since the image has already been overwritten there.
+ * Processing is not thread safe.
+ */
+public class EffectProcessor {
+
+    // Effects, in the order they are applied
+    public static final int EFFECT_BLUR = 0;
+    public static final int EFFECT_DESATURATE = 1;
+    public static final int EFFECT_TINT = 2;
+    public static final int EFFECT_DIM = 3;
+    public static final int EFFECT_VIGNETTE = 4;
+    public static final int EFFECTS_COUNT = 5;
+
+    private static final int BAND_ROWS = 64;
+
+    private final long[] effectNanos = new long[EFFECTS_COUNT];
+
+    private int[] input = new int[0];
+    private int[] blurred = new int[0];
+    private int[] carry = new int[0];
+    private int[][] columnSums = new int[4][0];
+
+    /**
+     * @return the time spent on each effect, indexed by the EFFECT_ constants, since the last reset
+     */
+    public long[] getEffectNanos() {
+        return effectNanos;
+    }
+
+    public void resetTimings() {
+        for (int i = 0; i < EFFECTS_COUNT; i++) {
+            effectNanos[i] = 0;
+        }
+    }
+
+    public void process(Surface surface, int width, int height, ImageEffects effects) {
+        int radius = effects.blurRadius;
+        ensureCapacity(width, radius);
+        for (int top = 0; top < height; top += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, height - top);
+            // The band starts at row "radius" of the input buffer, the halo rows are before and after it
+            int bandOffset = radius * width;
+            if (radius > 0) {
+                readHalo(surface, width, height, top, rows, radius);
+            }
+            else {
+                surface.read(input, 0, top, rows);
+            }
+
+            if (radius > 0) {
+                long start = System.nanoTime();
+                // Keep the original rows needed by the next band before they are overwritten
+                System.arraycopy(input, rows * width, carry, 0, radius * width);
+                blur(width, rows, radius);
+                effectNanos[EFFECT_BLUR] += System.nanoTime() - start;
+            }
+            applyPixelEffects(input, bandOffset, width, rows, top, height, effects);
+            surface.write(input, bandOffset, top, rows);
+        }
+    }
+
+    /**
+     * Fill the input buffer with the band and radius rows above and below it, repeating the edge rows outside
+     * the image
+     */
+    private void readHalo(Surface surface, int width, int height, int top, int rows, int radius) {
+        if (top == 0) {
+            surface.read(input, radius * width, 0, 1);
+            for (int i = 0; i < radius; i++) {
+                System.arraycopy(input, radius * width, input, i * width, width);
+            }
+        }
+        else {
+            System.arraycopy(carry, 0, input, 0, radius * width);
+        }
+        int available = Math.min(rows + radius, height - top);
+        surface.read(input, radius * width, top, available);
+        int last = radius + available - 1;
+        for (int i = last + 1; i < rows + 2 * radius; i++) {
+            System.arraycopy(input, last * width, input, i * width, width);
+        }
+    }
+
+    /**
+     * Box blur of the band: horizontal pass of all the input rows into the blurred buffer, then vertical pass
+     * with running column sums back into the band rows of the input buffer
+     */
+    private void blur(int width, int rows, int radius) {
+        int inputRows = rows + 2 * radius;
+        int window = 2 * radius + 1;
+        for (int y = 0; y < inputRows; y++) {
+            int rowStart = y * width;
+            int a = 0, r = 0, g = 0, b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int pixel = input[rowStart + Math.max(0, Math.min(width - 1, i))];
+                a += pixel >>> 24;
+                r += (pixel >> 16) & 0xff;
+                g += (pixel >> 8) & 0xff;
+                b += pixel & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                blurred[rowStart + x] = (a / window) << 24 | (r / window) << 16 | (g / window) << 8 | (b / window);
+                int out = input[rowStart + Math.max(0, x - radius)];
+                int in = input[rowStart + Math.min(width - 1, x + radius + 1)];
+                a += (in >>> 24) - (out >>> 24);
+                r += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                g += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                b += (in & 0xff) - (out & 0xff);
+            }
+        }
+
+        int[] sumA = columnSums[0], sumR = columnSums[1], sumG = columnSums[2], sumB = columnSums[3];
+        for (int x = 0; x < width; x++) {
+            sumA[x] = sumR[x] = sumG[x] = sumB[x] = 0;
+        }
+        for (int y = 0; y < window; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = blurred[y * width + x];
+                sumA[x] += pixel >>> 24;
+                sumR[x] += (pixel >> 16) & 0xff;
+                sumG[x] += (pixel >> 8) & 0xff;
+                sumB[x] += pixel & 0xff;
+            }
+        }
+        for (int y = 0; y < rows; y++) {
+            int outStart = (y + radius) * width;
+            int removedStart = y * width;
+            int addedStart = (y + window) * width;
+            boolean slide = y + window < inputRows;
+            for (int x = 0; x < width; x++) {
+                input[outStart + x] = (sumA[x] / window) << 24 | (sumR[x] / window) << 16
+                                      | (sumG[x] / window) << 8 | (sumB[x] / window);
+                if (slide) {
+                    int out = blurred[removedStart + x];
+                    int in = blurred[addedStart + x];
+                    sumA[x] += (in >>> 24) - (out >>> 24);
+                    sumR[x] += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                    sumG[x] += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                    sumB[x] += (in & 0xff) - (out & 0xff);
+                }
+            }
+        }
+    }
+
+    private void applyPixelEffects(int[] band, int offset, int width, int rows, int top, int height,
+                                   ImageEffects effects) {
+        int end = offset + rows * width;
+        if (effects.desaturate > 0) {
+            long start = System.nanoTime();
+            int amount = Math.round(effects.desaturate * 256);
+            for (int i = offset; i < end; i++) {
+                int pixel = band[i];
+                int r = (pixel >> 16) & 0xff, g = (pixel >> 8) & 0xff, b = pixel & 0xff;
+                int luma = (r * 77 + g * 150 + b * 29) >> 8;
+                band[i] = (pixel & 0xff000000)
+                          | (r + (((luma - r) * amount) >> 8)) << 16
+                          | (g + (((luma - g) * amount) >> 8)) << 8
+                          | (b + (((luma - b) * amount) >> 8));
+            }
+            effectNanos[EFFECT_DESATURATE] += System.nanoTime() - start;
+        }
+        if (effects.tint > 0) {
+            long start = System.nanoTime();
+            int amount = Math.round(effects.tint * 256);
+            int tintR = (effects.tintColor >> 16) & 0xff, tintG = (effects.tintColor >> 8) & 0xff, tintB = effects.tintColor & 0xff;
+            for (int i = offset; i < end; i++) {
+                int pixel = band[i];
+                int r = (pixel >> 16) & 0xff, g = (pixel >> 8) & 0xff, b = pixel & 0xff;
+                band[i] = (pixel & 0xff000000)
+                          | (r + (((tintR - r) * amount) >> 8)) << 16
+                          | (g + (((tintG - g) * amount) >> 8)) << 8
+                          | (b + (((tintB - b) * amount) >> 8));
+            }
+            effectNanos[EFFECT_TINT] += System.nanoTime() - start;
+        }
+        if (effects.dim > 0) {
+            long start = System.nanoTime();
+            scale(band, offset, end, Math.round((1 - effects.dim) * 256));
+            effectNanos[EFFECT_DIM] += System.nanoTime() - start;
+        }
+        if (effects.vignette > 0) {
+            long start = System.nanoTime();
+            float centreX = (width - 1) / 2f;
+            float centreY = (height - 1) / 2f;
+            for (int y = 0; y < rows; y++) {
+                float dy = (top + y - centreY) / centreY;
+                int rowStart = offset + y * width;
+                for (int x = 0; x < width; x++) {
+                    float dx = (x - centreX) / centreX;
+                    // 0 in the centre, 1 in the corners
+                    float distance = (dx * dx + dy * dy) / 2;
+                    int factor = (int) ((1 - effects.vignette * distance) * 256);
+                    int pixel = band[rowStart + x];
+                    band[rowStart + x] = (pixel & 0xff000000)
+                                         | ((((pixel >> 16) & 0xff) * factor) >> 8) << 16
+                                         | ((((pixel >> 8) & 0xff) * factor) >> 8) << 8
+                                         | (((pixel & 0xff) * factor) >> 8);
+                }
+            }
+            effectNanos[EFFECT_VIGNETTE] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Multiply the colour of the pixels in [from, to) by factor / 256
+     */
+    private static void scale(int[] pixels, int from, int to, int factor) {
+        for (int i = from; i < to; i++) {
+            int pixel = pixels[i];
+            pixels[i] = (pixel & 0xff000000)
+                        | ((((pixel >> 16) & 0xff) * factor) >> 8) << 16
+                        | ((((pixel >> 8) & 0xff) * factor) >> 8) << 8
+                        | (((pixel & 0xff) * factor) >> 8);
+        }
+    }
+
+    private void ensureCapacity(int width, int radius) {
+        int size = width * (BAND_ROWS + 2 * radius);
+        if (input.length < size) {
+            input = new int[size];
+            blurred = new int[size];
+        }
+        if (carry.length < width * radius) {
+            carry = new int[width * radius];
+        }
+        if (columnSums[0].length < width) {
+            columnSums = new int[4][width];
+        }
+    }
+
+    /**
+     * Image being processed, e.g. a bitmap
+     */
+    public interface Surface {
+        /**
+         * Copy the given rows of the image into the buffer, starting at offset, one row every width pixels
+         */
+        void read(int[] buffer, int offset, int top, int rows);
+
+        /**
+         * Copy the rows in the buffer back into the image
+         */
+        void write(int[] buffer, int offset, int top, int rows);
+    }
+}
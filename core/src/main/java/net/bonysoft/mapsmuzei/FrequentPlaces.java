@@ -0,0 +1,207 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Learns the places where the device spends its time, and at which hours of the day, from the locations of the
+ * refreshes. Locations are clustered incrementally: each one is merged into the nearest known place, if close
+ * enough, or starts a new place. The number of places is bounded, when it is reached the least visited place,
+ * after fading old visits, is forgotten. Nothing is ever re-scanned, and the memory used is fixed.
+ */
+public class FrequentPlaces {
+
+    public static final int MAX_PLACES = 32;
+    public static final int HOURS = 24;
+
+    /**
+     * Locations closer than this to a place are considered visits of that place
+     */
+    static final double RADIUS_METERS = 300;
+    /**
+     * Visits lose half their weight every this much time, so that old habits are forgotten
+     */
+    static final long HALF_LIFE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int VERSION = 1;
+    private static final double EARTH_RADIUS_METERS = 6371000;
+
+    private final float[] latitudes = new float[MAX_PLACES];
+    private final float[] longitudes = new float[MAX_PLACES];
+    private final float[] weights = new float[MAX_PLACES];
+    private final float[] hourWeights = new float[MAX_PLACES * HOURS];
+    private final long[] lastVisits = new long[MAX_PLACES];
+    private final float[] scores = new float[MAX_PLACES];
+    private int count;
+
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public float getLatitude(int place) {
+        return latitudes[place];
+    }
+
+    public float getLongitude(int place) {
+        return longitudes[place];
+    }
+
+    /**
+     * @return the known place containing the location, or -1
+     */
+    public int find(float latitude, float longitude) {
+        int nearest = -1;
+        double nearestDistance = RADIUS_METERS;
+        for (int place = 0; place < count; place++) {
+            double distance = distanceMeters(latitudes[place], longitudes[place], latitude, longitude);
+            if (distance <= nearestDistance) {
+                nearest = place;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Record a visit
+     * @param hourOfDay the local hour of the visit, from 0 to 23
+     * @return the place the location has been merged into
+     */
+    public int record(float latitude, float longitude, long timestamp, int hourOfDay) {
+        int place = find(latitude, longitude);
+        if (place < 0) {
+            place = count < MAX_PLACES ? count++ : leastVisited(timestamp);
+            latitudes[place] = latitude;
+            longitudes[place] = longitude;
+            weights[place] = 0;
+            lastVisits[place] = timestamp;
+            for (int hour = 0; hour < HOURS; hour++) {
+                hourWeights[place * HOURS + hour] = 0;
+            }
+        }
+        fade(place, timestamp);
+        // Move the centre towards the new location, weighting it as a single visit
+        float share = 1f / (weights[place] + 1);
+        latitudes[place] += (latitude - latitudes[place]) * share;
+        longitudes[place] += (longitude - longitudes[place]) * share;
+        weights[place] += 1;
+        hourWeights[place * HOURS + hourOfDay] += 1;
+        return place;
+    }
+
+    /**
+     * Rank the places by how likely the device is to be there in the next hours
+     * @param current the place where the device is now, which is excluded, or -1
+     * @param hourOfDay the current local hour
+     * @param horizonHours how many hours ahead to look
+     * @param out receives the best places, most likely first
+     * @return the number of places written into out, only places visited at least once in those hours
+     */
+    public int predict(int current, int hourOfDay, int horizonHours, long now, int[] out) {
+        for (int place = 0; place < count; place++) {
+            scores[place] = 0;
+            if (place == current) {
+                continue;
+            }
+            float fading = (float) fadingFactor(now - lastVisits[place]);
+            for (int offset = 1; offset <= horizonHours; offset++) {
+                scores[place] += hourWeights[place * HOURS + (hourOfDay + offset) % HOURS] * fading;
+            }
+        }
+        int found = 0;
+        while (found < out.length) {
+            int best = -1;
+            for (int place = 0; place < count; place++) {
+                if (scores[place] > 0 && (best < 0 || scores[place] > scores[best])) {
+                    best = place;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            out[found++] = best;
+            scores[best] = 0;
+        }
+        return found;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(count);
+        for (int place = 0; place < count; place++) {
+            out.writeFloat(latitudes[place]);
+            out.writeFloat(longitudes[place]);
+            out.writeFloat(weights[place]);
+            out.writeLong(lastVisits[place]);
+            for (int hour = 0; hour < HOURS; hour++) {
+                out.writeFloat(hourWeights[place * HOURS + hour]);
+            }
+        }
+    }
+
+    /**
+     * Replace the places with the ones written by {@link #writeTo(DataOutput)}
+     */
+    public void readFrom(DataInput in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unknown frequent places version");
+        }
+        int stored = in.readInt();
+        if (stored < 0 || stored > MAX_PLACES) {
+            throw new IOException("Corrupted frequent places");
+        }
+        count = stored;
+        for (int place = 0; place < count; place++) {
+            latitudes[place] = in.readFloat();
+            longitudes[place] = in.readFloat();
+            weights[place] = in.readFloat();
+            lastVisits[place] = in.readLong();
+            for (int hour = 0; hour < HOURS; hour++) {
+                hourWeights[place * HOURS + hour] = in.readFloat();
+            }
+        }
+    }
+
+    /**
+     * Apply the fading since the last visit to the weights of the place
+     */
+    private void fade(int place, long now) {
+        float fading = (float) fadingFactor(now - lastVisits[place]);
+        weights[place] *= fading;
+        for (int hour = 0; hour < HOURS; hour++) {
+            hourWeights[place * HOURS + hour] *= fading;
+        }
+        lastVisits[place] = Math.max(lastVisits[place], now);
+    }
+
+    private int leastVisited(long now) {
+        int least = 0;
+        double leastWeight = Double.MAX_VALUE;
+        for (int place = 0; place < count; place++) {
+            double weight = weights[place] * fadingFactor(now - lastVisits[place]);
+            if (weight < leastWeight) {
+                least = place;
+                leastWeight = weight;
+            }
+        }
+        return least;
+    }
+
+    private static double fadingFactor(long elapsedMillis) {
+        return Math.pow(0.5, Math.max(0, elapsedMillis) / (double) HALF_LIFE_MILLIS);
+    }
+
+    /**
+     * Equirectangular approximation, accurate enough at the scale of a place
+     */
+    private static double distanceMeters(float lat1, float lng1, float lat2, float lng2) {
+        double x = Math.toRadians(lng2 - lng1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+}
@@ -0,0 +1,50 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * The Google Static Maps API, the only provider which can draw styled themes and overlays
+ */
+public class GoogleStaticMapsProvider implements MapProvider {
+
+    public static final String NAME = "google";
+
+    private final String apiKey;
+
+    public GoogleStaticMapsProvider(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isTiled() {
+        return false;
+    }
+
+    @Override
+    public String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style, String path) {
+        return StaticMapUrl.buildImageUrl(latitude, longitude, zoom, spec, style, path, apiKey);
+    }
+
+    @Override
+    public String buildTileUrl(int zoom, int x, int y) {
+        return null;
+    }
+
+    @Override
+    public boolean supports(MapTheme style) {
+        return true;
+    }
+
+    @Override
+    public String buildIntentUrl(float latitude, float longitude, int zoom) {
+        return StaticMapUrl.buildIntentUrl(latitude, longitude, zoom);
+    }
+
+    @Override
+    public String getAttribution() {
+        return null;
+    }
+}
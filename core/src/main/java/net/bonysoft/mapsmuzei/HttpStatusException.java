@@ -0,0 +1,28 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.IOException;
+
+/**
+ * An HTTP request completed with an unexpected status code
+ */
+public class HttpStatusException extends IOException {
+
+    public final int statusCode;
+    /**
+     * The time before which the request should not be repeated, from the Retry-After header, or 0
+     */
+    public final long retryAt;
+
+    public HttpStatusException(int statusCode, long retryAt, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAt = retryAt;
+    }
+
+    /**
+     * @return true if the server is overloaded or rate limiting us, so that it should be left alone for a while
+     */
+    public boolean isThrottling() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
@@ -0,0 +1,113 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.Locale;
+
+/**
+ * Effects applied locally to the downloaded map, see {@link EffectProcessor}
+ */
+public class ImageEffects {
+
+    public static final ImageEffects NONE = new ImageEffects(0, 0, 0, 0, 0, 0);
+
+    // Presets offered in the settings
+    public static final int PRESET_NONE = 0;
+    public static final int PRESET_BLUR = 1;
+    public static final int PRESET_VIGNETTE = 2;
+    public static final int PRESET_BLACK_AND_WHITE = 3;
+    public static final int PRESET_SEPIA = 4;
+
+    private static final float[] DIM_LEVELS = {0, 0.2f, 0.4f, 0.6f};
+    private static final int SEPIA = 0x704214;
+
+    /**
+     * Radius, in pixels, of the strongest blur
+     */
+    public static final int MAX_BLUR_RADIUS = 16;
+
+    /**
+     * Fraction of brightness removed, from 0 to 1
+     */
+    public final float dim;
+    /**
+     * Radius of the box blur, in pixels. 0 for no blur
+     */
+    public final int blurRadius;
+    /**
+     * Darkening of the corners, from 0 to 1
+     */
+    public final float vignette;
+    /**
+     * Fraction of the colour removed, from 0 to 1
+     */
+    public final float desaturate;
+    /**
+     * RGB colour blended over the map, with the given strength from 0 to 1
+     */
+    public final int tintColor;
+    public final float tint;
+
+    public ImageEffects(float dim, int blurRadius, float vignette, float desaturate, int tintColor, float tint) {
+        this.dim = clamp(dim);
+        this.blurRadius = Math.max(0, Math.min(MAX_BLUR_RADIUS, blurRadius));
+        this.vignette = clamp(vignette);
+        this.desaturate = clamp(desaturate);
+        this.tintColor = tintColor & 0xffffff;
+        this.tint = clamp(tint);
+    }
+
+    /**
+     * @param dimLevel index of the dim level, from 0 (no dimming) to 3
+     * @param preset one of the PRESET_ constants
+     * @param imagePixels the side of the image, the blur radius is proportional to it
+     */
+    public static ImageEffects fromPreset(int dimLevel, int preset, int imagePixels) {
+        float dim = DIM_LEVELS[Math.max(0, Math.min(DIM_LEVELS.length - 1, dimLevel))];
+        switch (preset) {
+            case PRESET_BLUR:
+                return new ImageEffects(dim, Math.max(1, imagePixels / 128), 0, 0, 0, 0);
+            case PRESET_VIGNETTE:
+                return new ImageEffects(dim, 0, 0.6f, 0, 0, 0);
+            case PRESET_BLACK_AND_WHITE:
+                return new ImageEffects(dim, 0, 0, 1, 0, 0);
+            case PRESET_SEPIA:
+                return new ImageEffects(dim, 0, 0, 1, SEPIA, 0.35f);
+            default:
+                return new ImageEffects(dim, 0, 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * @return true if the effects leave the map as it is
+     */
+    public boolean isIdentity() {
+        return dim == 0 && blurRadius == 0 && vignette == 0 && desaturate == 0 && tint == 0;
+    }
+
+    /**
+     * The canonical description of the effects, used in cache keys and artwork tokens
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (blurRadius > 0) {
+            sb.append("blur").append(blurRadius);
+        }
+        if (desaturate > 0) {
+            sb.append(String.format(Locale.US, "desat%.2f", desaturate));
+        }
+        if (tint > 0) {
+            sb.append(String.format(Locale.US, "tint%06x@%.2f", tintColor, tint));
+        }
+        if (dim > 0) {
+            sb.append(String.format(Locale.US, "dim%.2f", dim));
+        }
+        if (vignette > 0) {
+            sb.append(String.format(Locale.US, "vignette%.2f", vignette));
+        }
+        return sb.length() > 0 ? sb.toString() : "none";
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
@@ -0,0 +1,90 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Size, scale and format of the requested map image
+ */
+public class ImageSpec {
+
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_JPG = "jpg-baseline";
+
+    /**
+     * Largest size, in map pixels, accepted by the Static Maps API
+     */
+    public static final int MAX_SIZE = 1024;
+
+    /**
+     * Devices with a memory class up to this value (in MB) will never get images larger than
+     * {@link #LOW_MEMORY_MAX_PIXELS} pixels per side
+     */
+    static final int LOW_MEMORY_CLASS = 64;
+    static final int LOW_MEMORY_MAX_PIXELS = 1024;
+
+    /**
+     * Screens from this density (hdpi) get images at scale 2, so that labels have the size they would have in
+     * the Google Maps app
+     */
+    static final float HIGH_DENSITY = 1.5f;
+
+    private static final int SIZE_STEP = 64;
+
+    public static final ImageSpec DEFAULT = new ImageSpec(MAX_SIZE, 2, FORMAT_PNG);
+
+    public final int size;
+    public final int scale;
+    public final String format;
+
+    public ImageSpec(int size, int scale, String format) {
+        this.size = size;
+        this.scale = scale;
+        this.format = format;
+    }
+
+    /**
+     * Choose the smallest image which covers the screen in both orientations. The scale depends on the density
+     * alone, so that the area shown does not jump between similar screens; saving data or memory lowers the
+     * scale, keeping the same area
+     * @param screenLongSide the longest side of the screen, in pixels
+     * @param density the logical density of the screen, 1 for mdpi
+     * @param memoryClass the memory class of the device, in MB
+     * @param isMetered true if the device is on a metered connection
+     * @param isDataSaver true if the user asked to use less data
+     * @param isPhotographic true if the map is a satellite or hybrid one, which compress better as JPEG
+     */
+    public static ImageSpec choose(int screenLongSide, float density, int memoryClass, boolean isMetered,
+                                   boolean isDataSaver, boolean isPhotographic) {
+        int scale = density >= HIGH_DENSITY ? 2 : 1;
+        // Round to a multiple of SIZE_STEP, so that similar screens share the same cached images
+        int size = ((Math.max(1, screenLongSide) + scale - 1) / scale + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+        size = Math.min(MAX_SIZE, size);
+
+        boolean isLowMemory = memoryClass <= LOW_MEMORY_CLASS;
+        if (isDataSaver || (isLowMemory && size * scale > LOW_MEMORY_MAX_PIXELS)) {
+            scale = 1;
+        }
+        if (isLowMemory) {
+            size = Math.min(size, LOW_MEMORY_MAX_PIXELS);
+        }
+        String format = isPhotographic || isMetered || isDataSaver ? FORMAT_JPG : FORMAT_PNG;
+        return new ImageSpec(size, scale, format);
+    }
+
+    /**
+     * @return the size in pixels of the side of the downloaded image
+     */
+    public int getPixels() {
+        return size * scale;
+    }
+
+    /**
+     * @return the memory needed to decode the image as an ARGB_8888 bitmap, in bytes
+     */
+    public long getBitmapBytes() {
+        return 4L * getPixels() * getPixels();
+    }
+
+    @Override
+    public String toString() {
+        return size + "x" + size + "@" + scale + "." + format;
+    }
+}
@@ -0,0 +1,63 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * A location fix, together with when it has been taken and how accurate it is
+ */
+public class LocationSnapshot {
+
+    /**
+     * Zoom level for which the maximum age of the power budget is used as is. Fixes are allowed to be twice as old
+     * for each zoom level below it, since a map covering a bigger area is less affected by movements
+     */
+    static final int REFERENCE_ZOOM = 15;
+    static final long MAX_AGE_LIMIT_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Fixes less accurate than this number of map pixels would produce a visibly different map
+     */
+    static final int ACCURACY_PIXELS = 64;
+
+    public final float latitude;
+    public final float longitude;
+    public final float accuracyMeters;
+    public final long timestamp;
+
+    public LocationSnapshot(float latitude, float longitude, float accuracyMeters, long timestamp) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracyMeters = accuracyMeters;
+        this.timestamp = timestamp;
+    }
+
+    public boolean isValid() {
+        return timestamp > 0 && MapLocations.isValid(latitude, longitude);
+    }
+
+    public long getAge(long now) {
+        return Math.max(0, now - timestamp);
+    }
+
+    /**
+     * @param maxAgeMillis the maximum age of a fix at {@link #REFERENCE_ZOOM}
+     * @return true if the fix is recent and accurate enough to draw a map at the given zoom
+     */
+    public boolean isUsableFor(int zoom, long maxAgeMillis, long now) {
+        return isValid()
+               && getAge(now) <= getMaxAge(zoom, maxAgeMillis)
+               && accuracyMeters <= getMaxAccuracy(latitude, zoom);
+    }
+
+    static long getMaxAge(int zoom, long maxAgeMillis) {
+        int shift = Math.max(0, Math.min(REFERENCE_ZOOM - zoom, 16));
+        return Math.min(MAX_AGE_LIMIT_MILLIS, maxAgeMillis << shift);
+    }
+
+    static double getMaxAccuracy(double latitude, int zoom) {
+        return MapGrid.metersPerPixel(latitude, zoom) * ACCURACY_PIXELS;
+    }
+
+    @Override
+    public String toString() {
+        return latitude + "," + longitude + " acc=" + accuracyMeters + "m @" + timestamp;
+    }
+}
@@ -0,0 +1,57 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Helpers to quantize coordinates on the web-mercator pixel grid used by the Static Maps API,
+ * so that nearby locations can share the same cell at a given zoom level.
+ */
+public class MapGrid {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final double MAX_LATITUDE = 85.05112878;
+    private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+
+    /**
+     * @return the size in meters of a single map pixel at the given latitude and zoom level
+     */
+    public static double metersPerPixel(double latitude, int zoom) {
+        return EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(clampLatitude(latitude))) / worldSize(zoom);
+    }
+
+    /**
+     * Compute a stable key for the grid cell containing the given point
+     * @param cellPixels the side of the cell, in map pixels at the given zoom
+     */
+    public static String cellKey(double latitude, double longitude, int zoom, int cellPixels) {
+        long column = (long) Math.floor(longitudeToPixelX(longitude, zoom) / cellPixels);
+        long row = (long) Math.floor(latitudeToPixelY(latitude, zoom) / cellPixels);
+        return zoom + ":" + cellPixels + ":" + column + ":" + row;
+    }
+
+    public static double longitudeToPixelX(double longitude, int zoom) {
+        return (longitude + 180d) / 360d * worldSize(zoom);
+    }
+
+    public static double latitudeToPixelY(double latitude, int zoom) {
+        double sinLatitude = Math.sin(Math.toRadians(clampLatitude(latitude)));
+        double y = 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+        return y * worldSize(zoom);
+    }
+
+    public static double pixelXToLongitude(double x, int zoom) {
+        return x / worldSize(zoom) * 360d - 180d;
+    }
+
+    public static double pixelYToLatitude(double y, int zoom) {
+        double n = Math.PI - 2 * Math.PI * y / worldSize(zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    private static double worldSize(int zoom) {
+        return (double) TILE_SIZE * (1L << zoom);
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+    }
+}
@@ -0,0 +1,62 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.Random;
+
+/**
+ * Validation of the device location and fallback on a list of well known places
+ */
+public class MapLocations {
+
+    /**
+     * Side of the grid cells the maps are centred on, in map pixels
+     */
+    public static final int SNAP_PIXELS = 32;
+
+    public static boolean isValid(float latitude, float longitude) {
+        return latitude >= -90f && latitude <= 90f &&
+               longitude >= -180f && longitude <= 180f;
+    }
+
+    /**
+     * Pick a random place from a list of "latitude,longitude" strings
+     * @return the coordinates of the place, as {latitude, longitude}
+     */
+    public static float[] pickFakeLocation(String[] fakeLocations, Random rng) {
+        return parse(fakeLocations[rng.nextInt(fakeLocations.length)]);
+    }
+
+    /**
+     * @param coordinates a "latitude,longitude" string
+     * @return the coordinates, as {latitude, longitude}
+     */
+    public static float[] parse(String coordinates) {
+        int separator = coordinates.indexOf(',');
+        return new float[]{Float.parseFloat(coordinates.substring(0, separator).trim()),
+                           Float.parseFloat(coordinates.substring(separator + 1).trim())};
+    }
+
+    /**
+     * Move a point to the centre of its grid cell at the given zoom, so that small location changes
+     * (e.g. GPS jitter) produce exactly the same map
+     * @param cellPixels the side of the grid cells, in map pixels
+     * @return the coordinates of the centre of the cell, as {latitude, longitude}
+     */
+    public static float[] snapToGrid(float latitude, float longitude, int zoom, int cellPixels) {
+        double x = MapGrid.longitudeToPixelX(longitude, zoom);
+        double y = MapGrid.latitudeToPixelY(latitude, zoom);
+        x = (Math.floor(x / cellPixels) + 0.5) * cellPixels;
+        y = (Math.floor(y / cellPixels) + 0.5) * cellPixels;
+        return new float[]{(float) MapGrid.pixelYToLatitude(y, zoom), (float) MapGrid.pixelXToLongitude(x, zoom)};
+    }
+
+    /**
+     * The token identifies the rendered map: two maps with the same token look the same
+     * @param track the encoded track drawn over the map, or null
+     */
+    public static String buildToken(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style,
+                                    String track) {
+        return latitude + "," + longitude + "," + zoom + "z," + spec + "," + style.getName() +
+               (style.isInverted() ? ",inverted" : "") +
+               (track != null ? ",track" + Integer.toHexString(track.hashCode()) : "");
+    }
+}
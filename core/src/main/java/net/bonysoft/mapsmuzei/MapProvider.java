@@ -0,0 +1,44 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * A service able to draw the map, either as a single image or as web-mercator tiles to be composited
+ */
+public interface MapProvider {
+
+    /**
+     * @return a short, stable identifier, used in artwork tokens and statistics
+     */
+    String getName();
+
+    /**
+     * @return true if the map is composited from the tiles of {@link #buildTileUrl(int, int, int)}, false if it
+     * is downloaded from {@link #buildImageUrl(float, float, int, ImageSpec, MapTheme, String)}
+     */
+    boolean isTiled();
+
+    /**
+     * @param path an encoded polyline to draw over the map, or null. Ignored by providers which can't draw it
+     * @return the URL of the map image, or null for tiled providers
+     */
+    String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style, String path);
+
+    /**
+     * @return the URL of a tile, or null for providers which are not tiled
+     */
+    String buildTileUrl(int zoom, int x, int y);
+
+    /**
+     * @return true if the provider draws the given theme as it is. Otherwise a plain road map is drawn
+     */
+    boolean supports(MapTheme style);
+
+    /**
+     * @return the page showing the map in a browser or in a maps app
+     */
+    String buildIntentUrl(float latitude, float longitude, int zoom);
+
+    /**
+     * @return the text which must be shown with the map, or null if the attribution is already in the image
+     */
+    String getAttribution();
+}
@@ -0,0 +1,126 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class defining a style for the map, as described in
+ * https://developers.google.com/maps/documentation/staticmaps/#StyledMaps
+ *
+ * Themes are immutable: the query-string fragment is encoded once when the theme is created.
+ *
+ * Created by Daniele Bonaldo on 2/26/14.
+ */
+public class MapTheme {
+
+    public static final int MODE_MAP = 0;
+    public static final int MODE_SATELLITE = 1;
+    public static final int MODE_TERRAIN = 2;
+    public static final int MODE_HYBRID = 3;
+    public static final int MODE_CUSTOM = -1;
+
+    public static final String[] MODES = {"roadmap", "satellite", "terrain", "hybrid"};
+
+    private static final String MODE_PREFIX = "&maptype=";
+    private static final String STYLE_PREFIX = "&style=";
+    private static final String STYLE_INVERT_LIGHTNESS = "invert_lightness:true";
+
+    private static final MapTheme[] STANDARD_THEMES = new MapTheme[MODES.length * 2];
+
+    static {
+        for (int mode = 0; mode < MODES.length; mode++) {
+            STANDARD_THEMES[mode * 2] = new MapTheme(MODES[mode], mode, Collections.<String>emptyList(), false);
+            STANDARD_THEMES[mode * 2 + 1] = new MapTheme(MODES[mode], mode, Collections.<String>emptyList(), true);
+        }
+    }
+
+    private final String name;
+    private final int mode;
+    private final boolean isInverted;
+    private final List<String> styles;
+    private final String query;
+
+    MapTheme(String name, int mode, List<String> styles, boolean isInverted) {
+        this.name = name;
+        this.mode = mode;
+        this.isInverted = isInverted;
+        this.styles = Collections.unmodifiableList(new ArrayList<String>(styles));
+        this.query = encode();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMapMode() {
+        return mode;
+    }
+
+    public boolean isInverted() {
+        return isInverted;
+    }
+
+    public List<String> getStyles() {
+        return styles;
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    private String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(MODE_PREFIX).append(MODES[mode]);
+        for(String style : styles) {
+            sb.append(STYLE_PREFIX).append(style);
+        }
+        if (isInverted) {
+            sb.append(STYLE_PREFIX).append(STYLE_INVERT_LIGHTNESS);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Check id the selected map theme is one of the standard ones (roadmap, satellite, terrain, hybrid)
+     * @param mapMode the index of the selected map type
+     * @return true if the theme is between roadmap, satellite, terrain or hybrid; false otherwise
+     */
+    public static boolean isStandardTheme(int mapMode) {
+        return mapMode == MODE_MAP || mapMode == MODE_SATELLITE || mapMode == MODE_TERRAIN || mapMode == MODE_HYBRID;
+    }
+
+    /**
+     * @return the default theme (roadmap, not inverted)
+     */
+    public static MapTheme getDefault() {
+        return STANDARD_THEMES[MODE_MAP * 2];
+    }
+
+    /**
+     * Return one of the standard themes (roadmap, satellite, terrain, hybrid)
+     * @param mapMode the index of the selected map type
+     * @param isInverted true if the lightness of the map should be inverted
+     * @return the shared instance for the given theme, or the default theme if the mode is not a standard one
+     */
+    public static MapTheme getStandardTheme(int mapMode, boolean isInverted) {
+        if (!isStandardTheme(mapMode)) {
+            return getDefault();
+        }
+        return STANDARD_THEMES[mapMode * 2 + (isInverted ? 1 : 0)];
+    }
+
+    static int getMapTypeIdFromString(String mapTypeName) {
+        int i=0;
+        for (String s : MODES) {
+            if (s.equals(mapTypeName)) {
+                return i;
+            }
+            i++;
+        }
+        return MODE_MAP;
+    }
+
+}
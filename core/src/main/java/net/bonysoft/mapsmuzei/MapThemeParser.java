@@ -0,0 +1,63 @@
+package net.bonysoft.mapsmuzei;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the map themes from the themes XML file
+ */
+public class MapThemeParser {
+
+    public static final String XML_TAG_STYLE = "MapStyle";
+    public static final String XML_TAG_THEME = "MapTheme";
+    public static final String XML_ATTRIBUTE_NAME = "name";
+    public static final String XML_ATTRIBUTE_MAP_TYPE = "mapType";
+
+    /**
+     * Read all the themes contained in the themes XML file, in a single pass
+     * @param parser the parser used to load the themes XML file
+     * @return the list of the themes found, in document order
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    public static List<MapTheme> readThemes(XmlPullParser parser) throws XmlPullParserException, IOException {
+        List<MapTheme> themes = new ArrayList<MapTheme>();
+        int eventType = parser.next();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG && parser.getName().equalsIgnoreCase(XML_TAG_THEME)) {
+                String name = parser.getAttributeValue(null, XML_ATTRIBUTE_NAME);
+                String mapType = parser.getAttributeValue(null, XML_ATTRIBUTE_MAP_TYPE);
+                int mode = mapType != null ? MapTheme.getMapTypeIdFromString(mapType) : MapTheme.MODE_MAP;
+                themes.add(new MapTheme(name, mode, readThemeStyles(parser), false));
+            }
+            eventType = parser.next();
+        }
+        return themes;
+    }
+
+    /**
+     * Read all the styles contained in the node of the current theme
+     * @param parser the parser used to load the themes XML file, positioned on the theme start tag
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private static List<String> readThemeStyles(XmlPullParser parser) throws XmlPullParserException, IOException {
+        List<String> styles = new ArrayList<String>();
+        int eventType = parser.next();
+        while (!(eventType == XmlPullParser.END_TAG && parser.getName().equalsIgnoreCase(XML_TAG_THEME))) {
+            if (eventType == XmlPullParser.START_TAG
+                && parser.getName().equalsIgnoreCase(XML_TAG_STYLE)) {
+                eventType = parser.next();
+                if (eventType == XmlPullParser.TEXT) {
+                    styles.add(parser.getText());
+                }
+            }
+            eventType = parser.next();
+        }
+        return styles;
+    }
+}
@@ -0,0 +1,19 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * What the providers of OpenStreetMap data have in common
+ */
+class OsmAttribution {
+
+    static final String TEXT = "\u00a9 OpenStreetMap contributors";
+
+    private static final String BASE_INTENT_URL = "https://www.openstreetmap.org/#map=";
+
+    static boolean isPlainRoadMap(MapTheme style) {
+        return style.getMapMode() == MapTheme.MODE_MAP && style.getStyles().isEmpty() && !style.isInverted();
+    }
+
+    static String buildIntentUrl(float latitude, float longitude, int zoom) {
+        return BASE_INTENT_URL + zoom + "/" + latitude + "/" + longitude;
+    }
+}
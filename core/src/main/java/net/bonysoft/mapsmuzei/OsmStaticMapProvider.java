@@ -0,0 +1,56 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * A static map server for OpenStreetMap data, with the query parameters of staticmap.openstreetmap.de. It draws
+ * only the plain road map, and ignores the scale of the image: high density screens get a smaller image, which
+ * covers the same area
+ */
+public class OsmStaticMapProvider implements MapProvider {
+
+    public static final String NAME = "osm_static";
+    public static final String DEFAULT_BASE_URL = "https://staticmap.openstreetmap.de/staticmap.php";
+
+    private final String baseUrl;
+
+    public OsmStaticMapProvider(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isTiled() {
+        return false;
+    }
+
+    @Override
+    public String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style, String path) {
+        return baseUrl + "?center=" + latitude + "," + longitude +
+               "&zoom=" + zoom +
+               "&size=" + spec.size + "x" + spec.size +
+               "&maptype=mapnik";
+    }
+
+    @Override
+    public String buildTileUrl(int zoom, int x, int y) {
+        return null;
+    }
+
+    @Override
+    public boolean supports(MapTheme style) {
+        return OsmAttribution.isPlainRoadMap(style);
+    }
+
+    @Override
+    public String buildIntentUrl(float latitude, float longitude, int zoom) {
+        return OsmAttribution.buildIntentUrl(latitude, longitude, zoom);
+    }
+
+    @Override
+    public String getAttribution() {
+        return OsmAttribution.TEXT;
+    }
+}
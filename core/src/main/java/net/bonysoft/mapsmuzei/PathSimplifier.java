@@ -0,0 +1,101 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Douglas-Peucker simplification of a range of a {@link TrackBuffer}. The recursion is replaced by an explicit
+ * stack, and the work arrays are reused between calls, so simplifying a track does not allocate once the
+ * arrays are big enough.
+ */
+public class PathSimplifier {
+
+    private boolean[] keep = new boolean[0];
+    private int[] stack = new int[0];
+    private int[] indices = new int[0];
+
+    /**
+     * Simplify the fixes from first (inclusive) to last (exclusive)
+     * @param tolerance the maximum distance of a dropped fix from the simplified path, in degrees of latitude
+     * @return the number of fixes kept, whose positions are in {@link #getIndices()}
+     */
+    public int simplify(TrackBuffer track, int first, int last, double tolerance) {
+        int count = last - first;
+        if (count <= 0) {
+            return 0;
+        }
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        // Longitudes are scaled, so that distances are roughly isotropic around the track
+        double scale = Math.cos(Math.toRadians(track.getLatitude(first)));
+        double toleranceSquared = tolerance * tolerance;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            if (end - start < 2) {
+                continue;
+            }
+            double ax = track.getLongitude(first + start) * scale;
+            double ay = track.getLatitude(first + start);
+            double dx = track.getLongitude(first + end) * scale - ax;
+            double dy = track.getLatitude(first + end) - ay;
+            double lengthSquared = dx * dx + dy * dy;
+
+            int farthest = -1;
+            double maxDistance = toleranceSquared;
+            for (int i = start + 1; i < end; i++) {
+                double px = track.getLongitude(first + i) * scale - ax;
+                double py = track.getLatitude(first + i);
+                py -= ay;
+                double distance;
+                if (lengthSquared == 0) {
+                    distance = px * px + py * py;
+                }
+                else {
+                    double cross = px * dy - py * dx;
+                    distance = cross * cross / lengthSquared;
+                }
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = start;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = end;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                indices[kept++] = first + i;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * @return the positions in the track of the fixes kept by the last call to simplify()
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    private void ensureCapacity(int count) {
+        if (keep.length < count) {
+            keep = new boolean[count];
+            indices = new int[count];
+            // Every pending segment is pushed as two ints, and there are never more pending segments than fixes
+            stack = new int[count * 2 + 2];
+        }
+    }
+}
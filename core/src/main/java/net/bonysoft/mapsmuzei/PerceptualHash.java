@@ -0,0 +1,132 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Difference hash (dHash) of an image: the image is reduced to a 9x8 grid of average luminances, and each bit of
+ * the 64 bit hash tells whether a cell is clearly brighter than the one on its right. Images which look the same,
+ * even if shifted by a few pixels or encoded differently, have hashes differing in a few bits only. Almost uniform
+ * images all hash to 0, so the mean colour of the image is computed too, see {@link #isLookalike}.
+ * The buffers are reused, so hashing images no larger than the first one does not allocate.
+ */
+public class PerceptualHash {
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    /**
+     * Rows read from the image at a time
+     */
+    private static final int BAND_ROWS = 16;
+    /**
+     * Smallest difference of average luminance which sets a bit. Without it the noise of almost uniform images,
+     * like open sea, would set random bits
+     */
+    private static final int MIN_DIFFERENCE = 2;
+
+    /**
+     * Images whose hashes differ in no more than this many bits look the same
+     */
+    static final int MAX_DISTANCE = 6;
+    /**
+     * ...if their mean colours differ by no more than this in each channel
+     */
+    static final int MAX_COLOR_DIFFERENCE = 16;
+
+    private final long[] sums = new long[COLUMNS * ROWS];
+    private final int[] counts = new int[COLUMNS * ROWS];
+    private int[] pixels = new int[0];
+    private int[] columns = new int[0];
+    private int meanColor;
+
+    /**
+     * @param width the width of the image, at least 9 pixels
+     * @param height the height of the image, at least 8 pixels
+     */
+    public long compute(EffectProcessor.Surface surface, int width, int height) {
+        if (width < COLUMNS || height < ROWS) {
+            throw new IllegalArgumentException("Image too small: " + width + "x" + height);
+        }
+        if (pixels.length < width * BAND_ROWS) {
+            pixels = new int[width * BAND_ROWS];
+        }
+        if (columns.length < width) {
+            columns = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            columns[x] = x * COLUMNS / width;
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = 0;
+            counts[i] = 0;
+        }
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+
+        for (int top = 0; top < height; top += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, height - top);
+            surface.read(pixels, 0, top, rows);
+            for (int row = 0; row < rows; row++) {
+                int cellRow = (top + row) * ROWS / height * COLUMNS;
+                int offset = row * width;
+                for (int x = 0; x < width; x++) {
+                    int color = pixels[offset + x];
+                    int r = (color >> 16) & 0xff;
+                    int g = (color >> 8) & 0xff;
+                    int b = color & 0xff;
+                    red += r;
+                    green += g;
+                    blue += b;
+                    int luma = (r * 77 + g * 150 + b * 29) >> 8;
+                    int cell = cellRow + columns[x];
+                    sums[cell] += luma;
+                    counts[cell]++;
+                }
+            }
+        }
+
+        long total = (long) width * height;
+        meanColor = (int) (red / total) << 16 | (int) (green / total) << 8 | (int) (blue / total);
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                // Compare the averages without dividing: left / leftCount > right / rightCount + MIN_DIFFERENCE
+                long leftCount = counts[cell];
+                long rightCount = counts[cell + 1];
+                boolean brighter = sums[cell] * rightCount > (sums[cell + 1] + MIN_DIFFERENCE * rightCount) * leftCount;
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the mean colour of the last image hashed, as 0xRRGGBB
+     */
+    public int getMeanColor() {
+        return meanColor;
+    }
+
+    /**
+     * @return true if two images, given their hashes and mean colours, look the same
+     */
+    public static boolean isLookalike(long hash, int meanColor, long otherHash, int otherMeanColor) {
+        if (distance(hash, otherHash) > MAX_DISTANCE) {
+            return false;
+        }
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int difference = ((meanColor >> shift) & 0xff) - ((otherMeanColor >> shift) & 0xff);
+            if (Math.abs(difference) > MAX_COLOR_DIFFERENCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of different bits, from 0 for images which look the same to 64
+     */
+    public static int distance(long hash, long other) {
+        return Long.bitCount(hash ^ other);
+    }
+}
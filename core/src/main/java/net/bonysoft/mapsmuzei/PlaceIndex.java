@@ -0,0 +1,179 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Read-only index of places compiled by {@link PlaceIndexWriter}, answering nearest place queries for offline
+ * reverse geocoding. The file is memory-mapped and searched in place, so a query allocates nothing.
+ *
+ * Places are stored as points on the unit sphere, so that the straight line distance between two of them grows
+ * with their distance on the ground, and sorted as an implicit k-d tree: the root of each range is in its middle,
+ * and the axis it splits the range on cycles through x, y and z with the depth.
+ *
+ * Layout (big endian): magic, version, places count, landmarks count; for each node x, y, z (floats) and the
+ * offset of its strings; the nodes of the landmarks; then name and region of each place, written with
+ * DataOutput.writeUTF().
+ */
+public class PlaceIndex {
+
+    static final int MAGIC = 0x4d5a504c;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NODE_SIZE = 16;
+    private static final double EARTH_RADIUS_METERS = 6371000;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int landmarkCount;
+    private final int landmarksStart;
+    private final int stringsStart;
+
+    /**
+     * Map the given index file
+     * @throws IOException if the file can't be read or is not a place index
+     */
+    public static PlaceIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new PlaceIndex(buffer);
+        }
+        finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    PlaceIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a place index");
+        }
+        count = buffer.getInt(8);
+        landmarkCount = buffer.getInt(12);
+        landmarksStart = HEADER_SIZE + count * NODE_SIZE;
+        stringsStart = landmarksStart + landmarkCount * 4;
+        if (count < 0 || landmarkCount < 0 || landmarkCount > count || stringsStart > buffer.capacity()) {
+            throw new IOException("Corrupted place index");
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the id of the place nearest to the given location, or -1 if the index is empty
+     */
+    public int findNearest(float latitude, float longitude) {
+        if (count == 0) {
+            return -1;
+        }
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        double x = Math.cos(phi) * Math.cos(lambda);
+        double y = Math.cos(phi) * Math.sin(lambda);
+        double z = Math.sin(phi);
+        return search(0, count, 0, x, y, z, -1);
+    }
+
+    /**
+     * @return the distance between the place and the given location, along the surface of the Earth
+     */
+    public double getDistanceMeters(int id, float latitude, float longitude) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        double chordSquared = distanceSquared(id, Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda),
+                                              Math.sin(phi));
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(chordSquared) / 2));
+    }
+
+    public float getLatitude(int id) {
+        return (float) Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, coordinate(id, 2)))));
+    }
+
+    public float getLongitude(int id) {
+        return (float) Math.toDegrees(Math.atan2(coordinate(id, 1), coordinate(id, 0)));
+    }
+
+    public String getName(int id) {
+        ByteBuffer strings = stringsAt(id);
+        return readString(strings);
+    }
+
+    /**
+     * @return the region (e.g. country) of the place, empty if not known
+     */
+    public String getRegion(int id) {
+        ByteBuffer strings = stringsAt(id);
+        strings.position(strings.position() + 2 + (strings.getShort(strings.position()) & 0xffff));
+        return readString(strings);
+    }
+
+    /**
+     * @return the id of a random landmark, or -1 if there are none
+     */
+    public int getRandomLandmark(Random random) {
+        return landmarkCount > 0 ? buffer.getInt(landmarksStart + random.nextInt(landmarkCount) * 4) : -1;
+    }
+
+    /**
+     * Nearest neighbour search in the subtree stored in [from, to). The recursion is as deep as the tree, about
+     * log2(count) levels
+     * @return the nearer between best and the nearest place in the subtree
+     */
+    private int search(int from, int to, int depth, double x, double y, double z, int best) {
+        if (from >= to) {
+            return best;
+        }
+        int node = (from + to) >>> 1;
+        if (best < 0 || distanceSquared(node, x, y, z) < distanceSquared(best, x, y, z)) {
+            best = node;
+        }
+        int axis = depth % 3;
+        double delta = (axis == 0 ? x : axis == 1 ? y : z) - coordinate(node, axis);
+        if (delta < 0) {
+            best = search(from, node, depth + 1, x, y, z, best);
+            if (delta * delta < distanceSquared(best, x, y, z)) {
+                best = search(node + 1, to, depth + 1, x, y, z, best);
+            }
+        }
+        else {
+            best = search(node + 1, to, depth + 1, x, y, z, best);
+            if (delta * delta < distanceSquared(best, x, y, z)) {
+                best = search(from, node, depth + 1, x, y, z, best);
+            }
+        }
+        return best;
+    }
+
+    private double distanceSquared(int id, double x, double y, double z) {
+        double dx = coordinate(id, 0) - x;
+        double dy = coordinate(id, 1) - y;
+        double dz = coordinate(id, 2) - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private float coordinate(int id, int axis) {
+        return buffer.getFloat(HEADER_SIZE + id * NODE_SIZE + axis * 4);
+    }
+
+    private ByteBuffer stringsAt(int id) {
+        ByteBuffer strings = buffer.duplicate();
+        strings.position(stringsStart + buffer.getInt(HEADER_SIZE + id * NODE_SIZE + 12));
+        return strings;
+    }
+
+    /**
+     * Read a string written with DataOutput.writeUTF(), see {@link ThemeCatalog#readString(ByteBuffer)}
+     */
+    private static String readString(ByteBuffer strings) {
+        return ThemeCatalog.readString(strings);
+    }
+}
@@ -0,0 +1,146 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compiles a list of places into the binary format read by {@link PlaceIndex}. Places are kept in memory until
+ * {@link #finish(File)}, which sorts them into an implicit k-d tree.
+ */
+public class PlaceIndexWriter {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private float[][] coordinates = new float[3][256];
+    private int[] stringOffsets = new int[256];
+    private boolean[] landmarks = new boolean[256];
+    private final ByteArrayOutputStream strings = new ByteArrayOutputStream();
+    private final DataOutputStream stringsOut = new DataOutputStream(strings);
+    private int count;
+    private int landmarkCount;
+
+    /**
+     * @param isLandmark whether the place can be shown when the location of the device is not known
+     */
+    public void add(float latitude, float longitude, String name, String region, boolean isLandmark) throws IOException {
+        if (count == stringOffsets.length) {
+            for (int axis = 0; axis < 3; axis++) {
+                coordinates[axis] = Arrays.copyOf(coordinates[axis], count * 2);
+            }
+            stringOffsets = Arrays.copyOf(stringOffsets, count * 2);
+            landmarks = Arrays.copyOf(landmarks, count * 2);
+        }
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        coordinates[0][count] = (float) (Math.cos(phi) * Math.cos(lambda));
+        coordinates[1][count] = (float) (Math.cos(phi) * Math.sin(lambda));
+        coordinates[2][count] = (float) Math.sin(phi);
+        stringOffsets[count] = stringsOut.size();
+        landmarks[count] = isLandmark;
+        stringsOut.writeUTF(name);
+        stringsOut.writeUTF(region != null ? region : "");
+        count++;
+        if (isLandmark) {
+            landmarkCount++;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Write the index into the target file, replacing it only once it is complete
+     */
+    public void finish(File target) throws IOException {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        build(order, 0, count, 0);
+
+        File temp = new File(target.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+        try {
+            out.writeInt(PlaceIndex.MAGIC);
+            out.writeInt(PlaceIndex.VERSION);
+            out.writeInt(count);
+            out.writeInt(landmarkCount);
+            for (int node = 0; node < count; node++) {
+                int place = order[node];
+                out.writeFloat(coordinates[0][place]);
+                out.writeFloat(coordinates[1][place]);
+                out.writeFloat(coordinates[2][place]);
+                out.writeInt(stringOffsets[place]);
+            }
+            for (int node = 0; node < count; node++) {
+                if (landmarks[order[node]]) {
+                    out.writeInt(node);
+                }
+            }
+            strings.writeTo(out);
+        }
+        finally {
+            out.close();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to write place index " + target);
+        }
+    }
+
+    /**
+     * Sort the range so that its middle element is the median along the axis of this depth, then do the same
+     * for the two halves
+     */
+    private void build(int[] order, int from, int to, int depth) {
+        if (to - from < 2) {
+            return;
+        }
+        int axis = depth % 3;
+        int middle = (from + to) >>> 1;
+        select(order, from, to - 1, middle, coordinates[axis]);
+        build(order, from, middle, depth + 1);
+        build(order, middle + 1, to, depth + 1);
+    }
+
+    /**
+     * Quickselect: move the k-th smallest element to position k, smaller ones before and bigger ones after it
+     */
+    private static void select(int[] order, int left, int right, int k, float[] values) {
+        while (left < right) {
+            float pivot = values[order[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[order[i]] < pivot) {
+                    i++;
+                }
+                while (values[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            }
+            else if (k >= i) {
+                left = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Google encoded polyline algorithm, producing a string that can be used in a URL as is
+ * https://developers.google.com/maps/documentation/utilities/polylinealgorithm
+ */
+public class PolylineEncoder {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Append the encoded polyline of the given fixes
+     * @param indices the positions of the fixes in the track
+     * @param maxLength the maximum length of the output
+     * @return false if the output would have been longer than maxLength. The output is then incomplete
+     */
+    public static boolean encode(TrackBuffer track, int[] indices, int count, StringBuilder out, int maxLength) {
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+        int start = out.length();
+        for (int i = 0; i < count; i++) {
+            long latitude = Math.round(track.getLatitude(indices[i]) * 1e5);
+            long longitude = Math.round(track.getLongitude(indices[i]) * 1e5);
+            encodeValue(latitude - previousLatitude, out);
+            encodeValue(longitude - previousLongitude, out);
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+            if (out.length() - start > maxLength) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void encodeValue(long value, StringBuilder out) {
+        long shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            append((char) ((0x20 | (shifted & 0x1f)) + 63), out);
+            shifted >>= 5;
+        }
+        append((char) (shifted + 63), out);
+    }
+
+    /**
+     * Encoded polylines use the characters from '?' to '~', some of which must be escaped in a URL
+     */
+    private static void append(char c, StringBuilder out) {
+        if ((c >= '?' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_' || c == '~') {
+            out.append(c);
+        }
+        else {
+            out.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps a moving estimate of the latency and error rate of each {@link MapProvider}, and orders them for a
+ * refresh: the first one should be tried first, the others are the failover sequence. Errors are forgotten
+ * over time, so that a provider which failed is tried again once the others become slower than it used to be.
+ */
+public class ProviderSelector {
+
+    /**
+     * Weight of the last sample in the moving averages
+     */
+    private static final double ALPHA = 0.3;
+    /**
+     * Latency assumed for providers never used, so that they are tried before known slow ones
+     */
+    private static final double PRIOR_LATENCY_MILLIS = 2000;
+    private static final long ERROR_HALF_LIFE_MILLIS = 30L * 60 * 1000;
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final double MAX_ERROR_RATE = 0.95;
+
+    private final Map<String, Stats> stats = new HashMap<String, Stats>();
+
+    /**
+     * Order the providers for a refresh. The preferred provider comes first if it is healthy; then healthy
+     * providers which can draw the theme, then the other healthy ones, then the unhealthy ones, each group
+     * from the fastest
+     * @param preferred the provider chosen by the user, or null to always use the fastest
+     */
+    public synchronized MapProvider[] rank(List<MapProvider> providers, final MapTheme style, final MapProvider preferred,
+                                           final long now) {
+        MapProvider[] ranked = providers.toArray(new MapProvider[providers.size()]);
+        Arrays.sort(ranked, new Comparator<MapProvider>() {
+            @Override
+            public int compare(MapProvider lhs, MapProvider rhs) {
+                int lhsGroup = group(lhs, style, preferred, now);
+                int rhsGroup = group(rhs, style, preferred, now);
+                if (lhsGroup != rhsGroup) {
+                    return lhsGroup < rhsGroup ? -1 : 1;
+                }
+                return Double.compare(getScore(lhs, now), getScore(rhs, now));
+            }
+        });
+        return ranked;
+    }
+
+    public synchronized void onSuccess(MapProvider provider, long latencyMillis, long now) {
+        Stats providerStats = getStats(provider);
+        providerStats.latencyMillis += ALPHA * (latencyMillis - providerStats.latencyMillis);
+        providerStats.errorRate = providerStats.getErrorRate(now) * (1 - ALPHA);
+        providerStats.updatedAt = now;
+    }
+
+    /**
+     * @param elapsedMillis how long it took to fail, e.g. the timeout
+     */
+    public synchronized void onFailure(MapProvider provider, long elapsedMillis, long now) {
+        Stats providerStats = getStats(provider);
+        providerStats.latencyMillis += ALPHA * (Math.max(elapsedMillis, providerStats.latencyMillis) - providerStats.latencyMillis);
+        providerStats.errorRate = providerStats.getErrorRate(now) * (1 - ALPHA) + ALPHA;
+        providerStats.updatedAt = now;
+    }
+
+    public synchronized boolean isHealthy(MapProvider provider, long now) {
+        return getStats(provider).getErrorRate(now) < UNHEALTHY_ERROR_RATE;
+    }
+
+    /**
+     * @return the expected time to get a map from the provider, retries included
+     */
+    public synchronized double getScore(MapProvider provider, long now) {
+        Stats providerStats = getStats(provider);
+        return providerStats.latencyMillis / (1 - Math.min(MAX_ERROR_RATE, providerStats.getErrorRate(now)));
+    }
+
+    /**
+     * @return the estimates, in a compact form to be read back by {@link #restore(String)}
+     */
+    public synchronized String save() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            Stats providerStats = entry.getValue();
+            sb.append(entry.getKey()).append(',').append(providerStats.latencyMillis)
+              .append(',').append(providerStats.errorRate).append(',').append(providerStats.updatedAt);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Replace the estimates with the ones returned by {@link #save()}. Malformed entries are skipped
+     */
+    public synchronized void restore(String saved) {
+        stats.clear();
+        if (saved == null || saved.isEmpty()) {
+            return;
+        }
+        for (String entry : saved.split(";")) {
+            String[] fields = entry.split(",");
+            if (fields.length != 4) {
+                continue;
+            }
+            try {
+                Stats providerStats = new Stats();
+                providerStats.latencyMillis = Double.parseDouble(fields[1]);
+                providerStats.errorRate = Double.parseDouble(fields[2]);
+                providerStats.updatedAt = Long.parseLong(fields[3]);
+                stats.put(fields[0], providerStats);
+            } catch (NumberFormatException e) {
+                // Skip it, the provider starts again from the prior
+            }
+        }
+    }
+
+    /**
+     * @return a human readable summary of the estimates
+     */
+    public synchronized String dump(long now) {
+        StringBuilder sb = new StringBuilder("Providers:");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            sb.append(String.format(Locale.US, "%n  %s: latency %.0fms, errors %.0f%%", entry.getKey(),
+                                    entry.getValue().latencyMillis, entry.getValue().getErrorRate(now) * 100));
+        }
+        return sb.toString();
+    }
+
+    private int group(MapProvider provider, MapTheme style, MapProvider preferred, long now) {
+        if (!isHealthy(provider, now)) {
+            return 3;
+        }
+        if (provider == preferred) {
+            return 0;
+        }
+        return provider.supports(style) ? 1 : 2;
+    }
+
+    private Stats getStats(MapProvider provider) {
+        Stats providerStats = stats.get(provider.getName());
+        if (providerStats == null) {
+            providerStats = new Stats();
+            stats.put(provider.getName(), providerStats);
+        }
+        return providerStats;
+    }
+
+    private static class Stats {
+        double latencyMillis = PRIOR_LATENCY_MILLIS;
+        double errorRate;
+        long updatedAt;
+
+        /**
+         * @return the error rate, halved for every ERROR_HALF_LIFE_MILLIS since the last update
+         */
+        double getErrorRate(long now) {
+            if (errorRate == 0) {
+                return 0;
+            }
+            return errorRate * Math.pow(0.5, Math.max(0, now - updatedAt) / (double) ERROR_HALF_LIFE_MILLIS);
+        }
+    }
+}
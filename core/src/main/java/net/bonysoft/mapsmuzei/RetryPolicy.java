@@ -0,0 +1,40 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with full jitter: the n-th retry waits a random time between the base delay and
+ * base * 2^n, so that devices which failed together do not retry together
+ */
+public class RetryPolicy {
+
+    /**
+     * Delay of the first retry of a failed refresh
+     */
+    public static final long REFRESH_BASE_MILLIS = 60 * 1000;
+
+    private final long baseMillis;
+    private final long maxMillis;
+
+    public RetryPolicy(long baseMillis, long maxMillis) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return the policy of the failed refreshes, retrying up to the refresh interval
+     */
+    public static RetryPolicy forRefresh(long intervalMillis) {
+        return new RetryPolicy(REFRESH_BASE_MILLIS, Math.max(REFRESH_BASE_MILLIS, intervalMillis));
+    }
+
+    /**
+     * @param attempt the number of consecutive failures so far, starting from 1
+     * @return the time to wait before the next attempt
+     */
+    public long getDelay(int attempt, Random random) {
+        int shift = Math.max(0, Math.min(attempt - 1, 30));
+        long ceiling = Math.min(maxMillis, baseMillis << shift);
+        return baseMillis + (long) (random.nextDouble() * (ceiling - baseMillis));
+    }
+}
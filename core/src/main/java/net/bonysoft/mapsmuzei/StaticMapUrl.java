@@ -0,0 +1,61 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Builds the URLs of the Static Maps API image and of the Google Maps page for a map
+ */
+public class StaticMapUrl {
+
+    private static final String BASE_IMAGE_URL = "https://maps.googleapis.com/maps/api/staticmap?center=";
+    private static final String BASE_INTENT_URL = "https://www.google.it/maps/@";
+    private static final String PATH_PREFIX = "&path=color:0xff4081cc%7Cweight:4%7Cenc:";
+    private static final String KEY_PREFIX = "&key=";
+
+    /**
+     * Longest URL accepted by the Static Maps API
+     */
+    public static final int MAX_URL_LENGTH = 8192;
+
+    /**
+     * This URL will be used by Muzei to fetch the actual image
+     */
+    public static String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec,
+                                       MapTheme style, String apiKey) {
+        return buildImageUrl(latitude, longitude, zoom, spec, style, null, apiKey);
+    }
+
+    /**
+     * @param path an encoded polyline to draw over the map, or null
+     */
+    public static String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec,
+                                       MapTheme style, String path, String apiKey) {
+        String query = style.toString();
+        int pathLength = path != null ? PATH_PREFIX.length() + path.length() : 0;
+        StringBuilder sb = new StringBuilder(BASE_IMAGE_URL.length() + query.length() + pathLength + apiKey.length() + 96);
+        sb.append(BASE_IMAGE_URL).append(latitude).append(',').append(longitude)
+          .append("&zoom=").append(zoom)
+          .append("&size=").append(spec.size).append('x').append(spec.size)
+          .append("&scale=").append(spec.scale)
+          .append("&format=").append(spec.format)
+          .append("&sensor=false")
+          .append(query);
+        if (path != null) {
+            sb.append(PATH_PREFIX).append(path);
+        }
+        sb.append(KEY_PREFIX).append(apiKey);
+        return sb.toString();
+    }
+
+    /**
+     * @return the maximum length of an encoded path which can be added to the given URL, built without path
+     */
+    public static int getPathBudget(String imageUrl) {
+        return MAX_URL_LENGTH - imageUrl.length() - PATH_PREFIX.length();
+    }
+
+    /**
+     * This URL will be used by Muzei when someone click on the description of the map, opening Google Maps
+     */
+    public static String buildIntentUrl(float latitude, float longitude, int zoom) {
+        return BASE_INTENT_URL + latitude + "," + longitude + "," + zoom + "z";
+    }
+}
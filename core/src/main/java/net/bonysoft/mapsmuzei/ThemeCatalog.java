@@ -0,0 +1,175 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Read-only theme catalog compiled by {@link ThemeCatalogWriter}. The file is memory-mapped and themes are
+ * decoded only when requested, so opening a catalog costs the same whatever its size.
+ *
+ * Layout (big endian): magic, version, theme count, hash slots; an offset for each theme; an open addressing
+ * hash table of theme names holding id + 1 (0 for empty slots); then the themes, each one stored as mode (byte),
+ * name and styles count (short) followed by the styles, strings in modified UTF-8 prefixed by their length.
+ */
+public class ThemeCatalog {
+
+    static final int MAGIC = 0x4d5a5443;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int slots;
+    private final int tableStart;
+    private final int dataStart;
+
+    /**
+     * Map the given catalog file
+     * @throws IOException if the file can't be read or is not a theme catalog
+     */
+    public static ThemeCatalog open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            return new ThemeCatalog(buffer);
+        }
+        finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    ThemeCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a theme catalog");
+        }
+        count = buffer.getInt(8);
+        slots = buffer.getInt(12);
+        tableStart = HEADER_SIZE + count * 4;
+        dataStart = tableStart + slots * 4;
+        if (count < 0 || slots < count || dataStart > buffer.capacity()) {
+            throw new IOException("Corrupted theme catalog");
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the theme with the given id, or null if there is no such theme
+     */
+    public MapTheme getById(int id) {
+        if (id < 0 || id >= count) {
+            return null;
+        }
+        ByteBuffer record = recordAt(id);
+        int mode = record.get();
+        String name = readString(record);
+        int stylesCount = record.getShort() & 0xffff;
+        List<String> styles = new ArrayList<String>(stylesCount);
+        for (int i = 0; i < stylesCount; i++) {
+            styles.add(readString(record));
+        }
+        return new MapTheme(name, mode, styles, false);
+    }
+
+    /**
+     * @return the name of the theme with the given id, without decoding its styles
+     */
+    public String getName(int id) {
+        if (id < 0 || id >= count) {
+            return null;
+        }
+        ByteBuffer record = recordAt(id);
+        record.get();
+        return readString(record);
+    }
+
+    /**
+     * @return the id of the first theme with the given name, or -1
+     */
+    public int findId(String name) {
+        if (count == 0) {
+            return -1;
+        }
+        int slot = slotFor(name.hashCode(), slots);
+        for (int probes = 0; probes < slots; probes++) {
+            int entry = buffer.getInt(tableStart + slot * 4);
+            if (entry == 0) {
+                return -1;
+            }
+            if (name.equals(getName(entry - 1))) {
+                return entry - 1;
+            }
+            slot = (slot + 1) % slots;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first theme with the given name, or null
+     */
+    public MapTheme getByName(String name) {
+        int id = findId(name);
+        return id >= 0 ? getById(id) : null;
+    }
+
+    /**
+     * @return a random theme, or null if the catalog is empty
+     */
+    public MapTheme getRandom(Random random) {
+        return count > 0 ? getById(random.nextInt(count)) : null;
+    }
+
+    /**
+     * The hash table is kept at most half full, so that lookups need very few probes
+     */
+    static int hashSlots(int count) {
+        return Math.max(1, count * 2);
+    }
+
+    static int slotFor(int hash, int slots) {
+        // Spread the high bits, String.hashCode() of similar names differ mostly in the low ones
+        int spread = hash ^ (hash >>> 16);
+        return (spread & 0x7fffffff) % slots;
+    }
+
+    private ByteBuffer recordAt(int id) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(dataStart + buffer.getInt(HEADER_SIZE + id * 4));
+        return record;
+    }
+
+    /**
+     * Read a string written with DataOutput.writeUTF(). Modified UTF-8 encodes the null character in two bytes
+     * and supplementary characters as two surrogates of three bytes each, so it can't be decoded as UTF-8
+     */
+    static String readString(ByteBuffer buffer) {
+        int end = (buffer.getShort() & 0xffff) + buffer.position();
+        char[] chars = new char[end - buffer.position()];
+        int count = 0;
+        while (buffer.position() < end) {
+            int first = buffer.get() & 0xff;
+            if (first < 0x80) {
+                chars[count++] = (char) first;
+            }
+            else if ((first & 0xe0) == 0xc0) {
+                chars[count++] = (char) (((first & 0x1f) << 6) | (buffer.get() & 0x3f));
+            }
+            else {
+                int second = buffer.get() & 0x3f;
+                chars[count++] = (char) (((first & 0x0f) << 12) | (second << 6) | (buffer.get() & 0x3f));
+            }
+        }
+        return new String(chars, 0, count);
+    }
+}
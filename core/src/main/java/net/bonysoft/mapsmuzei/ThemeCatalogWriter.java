@@ -0,0 +1,127 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compiles a theme catalog into the binary format read by {@link ThemeCatalog}. Themes are appended to a
+ * temporary data file as soon as they are added, and only their offset and name hash are kept in memory, so
+ * catalogs of any size can be compiled while they are being parsed.
+ */
+public class ThemeCatalogWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File target;
+    private final File data;
+    private final DataOutputStream out;
+
+    private int[] offsets = new int[256];
+    private int[] hashes = new int[256];
+    private int count;
+    private int size;
+
+    public ThemeCatalogWriter(File target) throws IOException {
+        this.target = target;
+        this.data = new File(target.getPath() + ".data");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(data), BUFFER_SIZE));
+    }
+
+    /**
+     * Append a theme. Themes whose name is already in the catalog are added anyway, but only the first one can be
+     * found by name
+     */
+    public void add(String name, int mode, List<String> styles) throws IOException {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        offsets[count] = size;
+        hashes[count] = name.hashCode();
+        count++;
+
+        int start = out.size();
+        out.writeByte(mode);
+        out.writeUTF(name);
+        out.writeShort(styles.size());
+        for (String style : styles) {
+            out.writeUTF(style);
+        }
+        size += out.size() - start;
+        if (size < 0) {
+            throw new IOException("Theme catalog too big");
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Write the index followed by the themes data into the target file, replacing it only once it is complete
+     */
+    public void finish() throws IOException {
+        out.close();
+        int slots = ThemeCatalog.hashSlots(count);
+        int[] table = new int[slots];
+        for (int id = 0; id < count; id++) {
+            int slot = ThemeCatalog.slotFor(hashes[id], slots);
+            while (table[slot] != 0) {
+                slot = (slot + 1) % slots;
+            }
+            table[slot] = id + 1;
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+        try {
+            index.writeInt(ThemeCatalog.MAGIC);
+            index.writeInt(ThemeCatalog.VERSION);
+            index.writeInt(count);
+            index.writeInt(slots);
+            for (int id = 0; id < count; id++) {
+                index.writeInt(offsets[id]);
+            }
+            for (int entry : table) {
+                index.writeInt(entry);
+            }
+            InputStream in = new BufferedInputStream(new FileInputStream(data), BUFFER_SIZE);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    index.write(buffer, 0, read);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        finally {
+            index.close();
+        }
+        data.delete();
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to write theme catalog " + target);
+        }
+    }
+
+    /**
+     * Abandon the import, deleting the temporary data. The previous catalog, if any, is left untouched
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+        data.delete();
+    }
+}
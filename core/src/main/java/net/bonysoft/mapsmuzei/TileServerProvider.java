@@ -0,0 +1,60 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * A standard web-mercator tile server for OpenStreetMap data, whose tiles are composited on the device
+ */
+public class TileServerProvider implements MapProvider {
+
+    public static final String NAME = "tiles";
+    public static final String DEFAULT_URL_TEMPLATE = "https://tile.openstreetmap.org/{z}/{x}/{y}.png";
+
+    private final String urlTemplate;
+
+    /**
+     * @param urlTemplate the URL of the tiles, with {z}, {x} and {y} placeholders
+     */
+    public TileServerProvider(String urlTemplate) {
+        this.urlTemplate = urlTemplate;
+    }
+
+    public String getUrlTemplate() {
+        return urlTemplate;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isTiled() {
+        return true;
+    }
+
+    @Override
+    public String buildImageUrl(float latitude, float longitude, int zoom, ImageSpec spec, MapTheme style, String path) {
+        return null;
+    }
+
+    @Override
+    public String buildTileUrl(int zoom, int x, int y) {
+        return urlTemplate.replace("{z}", String.valueOf(zoom))
+                          .replace("{x}", String.valueOf(x))
+                          .replace("{y}", String.valueOf(y));
+    }
+
+    @Override
+    public boolean supports(MapTheme style) {
+        return OsmAttribution.isPlainRoadMap(style);
+    }
+
+    @Override
+    public String buildIntentUrl(float latitude, float longitude, int zoom) {
+        return OsmAttribution.buildIntentUrl(latitude, longitude, zoom);
+    }
+
+    @Override
+    public String getAttribution() {
+        return OsmAttribution.TEXT;
+    }
+}
@@ -0,0 +1,63 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Token bucket refilled continuously, so that no more than capacity requests are made in any period of
+ * refillMillis, while still allowing short bursts
+ */
+public class TokenBucket {
+
+    private final int capacity;
+    private final long refillMillis;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(int capacity, long refillMillis, long now) {
+        this(capacity, refillMillis, capacity, now);
+    }
+
+    /**
+     * Restore a bucket from a previously saved state
+     */
+    public TokenBucket(int capacity, long refillMillis, double tokens, long lastRefill) {
+        this.capacity = capacity;
+        this.refillMillis = refillMillis;
+        this.tokens = Math.min(capacity, tokens);
+        this.lastRefill = lastRefill;
+    }
+
+    /**
+     * @return true if a token was available, and has been consumed
+     */
+    public synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * @return the time to wait for the next token
+     */
+    public synchronized long getWaitMillis(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * refillMillis / capacity);
+    }
+
+    public synchronized double getTokens() {
+        return tokens;
+    }
+
+    public synchronized long getLastRefill() {
+        return lastRefill;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) * capacity / refillMillis);
+        }
+        lastRefill = now;
+    }
+}
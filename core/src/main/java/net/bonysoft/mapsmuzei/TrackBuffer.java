@@ -0,0 +1,130 @@
+package net.bonysoft.mapsmuzei;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size ring buffer of location fixes, stored in primitive arrays so that recording a fix never allocates.
+ * When the buffer is full, the oldest fix is overwritten.
+ */
+public class TrackBuffer {
+
+    /**
+     * Size of a fix written by {@link #putRecord(ByteBuffer, float, float, long)}
+     */
+    public static final int RECORD_SIZE = 16;
+
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final long[] timestamps;
+    private int head;
+    private int size;
+
+    public TrackBuffer(int capacity) {
+        latitudes = new float[capacity];
+        longitudes = new float[capacity];
+        timestamps = new long[capacity];
+    }
+
+    public void add(float latitude, float longitude, long timestamp) {
+        int index = (head + size) % latitudes.length;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        timestamps[index] = timestamp;
+        if (size < latitudes.length) {
+            size++;
+        }
+        else {
+            head = (head + 1) % latitudes.length;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return latitudes.length;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @param i the position of the fix, from 0 (the oldest) to size() - 1 (the newest)
+     */
+    public float getLatitude(int i) {
+        return latitudes[(head + i) % latitudes.length];
+    }
+
+    public float getLongitude(int i) {
+        return longitudes[(head + i) % latitudes.length];
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[(head + i) % latitudes.length];
+    }
+
+    /**
+     * @return the position of the oldest fix taken at or after the given time, or size() if there is none
+     */
+    public int firstSince(long timestamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Write a fix as a record of {@link #RECORD_SIZE} bytes, see {@link #readRing(ByteBuffer)}
+     */
+    public static void putRecord(ByteBuffer out, float latitude, float longitude, long timestamp) {
+        out.putFloat(latitude);
+        out.putFloat(longitude);
+        out.putLong(timestamp);
+    }
+
+    /**
+     * Replace the content of the buffer with the fixes of a ring of records written by
+     * {@link #putRecord(ByteBuffer, float, float, long)}: one slot per fix, as many slots as the capacity, reused
+     * from the first one when the ring is full. The ring may be shorter than that while it is filling up
+     * @return the slot where the next fix should be written
+     */
+    public int readRing(ByteBuffer ring) {
+        clear();
+        int start = ring.position();
+        int slots = Math.min(ring.remaining() / RECORD_SIZE, latitudes.length);
+        int newest = -1;
+        long newestTimestamp = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            long timestamp = ring.getLong(start + slot * RECORD_SIZE + 8);
+            if (timestamp > newestTimestamp) {
+                newest = slot;
+                newestTimestamp = timestamp;
+            }
+        }
+        if (newest < 0) {
+            return 0;
+        }
+        // The oldest fix follows the newest one. Records out of order, e.g. partially written, are skipped
+        long last = 0;
+        for (int i = 1; i <= slots; i++) {
+            int offset = start + (newest + i) % slots * RECORD_SIZE;
+            long timestamp = ring.getLong(offset + 8);
+            if (timestamp > last) {
+                add(ring.getFloat(offset), ring.getFloat(offset + 4), timestamp);
+                last = timestamp;
+            }
+        }
+        return (newest + 1) % latitudes.length;
+    }
+}
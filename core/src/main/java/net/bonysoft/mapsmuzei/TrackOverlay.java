@@ -0,0 +1,37 @@
+package net.bonysoft.mapsmuzei;
+
+/**
+ * Encodes the recent part of a track as a Static Maps polyline ("enc:" path), simplifying it as much as needed
+ * to fit in the given number of characters
+ */
+public class TrackOverlay {
+
+    private static final double MAX_TOLERANCE = 10;
+
+    private final PathSimplifier simplifier = new PathSimplifier();
+    private final StringBuilder encoded = new StringBuilder();
+
+    /**
+     * @param since the time of the oldest fix to draw
+     * @param zoom the zoom of the map: details smaller than half a pixel are dropped straight away
+     * @param maxLength the maximum length of the encoded path, URL escaping included
+     * @return the URL escaped encoded polyline, or null if there are not enough fixes or it does not fit
+     */
+    public String encode(TrackBuffer track, long since, int zoom, int maxLength) {
+        int first = track.firstSince(since);
+        int last = track.size();
+        if (last - first < 2 || maxLength <= 0) {
+            return null;
+        }
+        double halfPixel = 180d / ((double) MapGrid.TILE_SIZE * (1L << zoom))
+                           * Math.cos(Math.toRadians(track.getLatitude(first)));
+        for (double tolerance = halfPixel; tolerance <= MAX_TOLERANCE; tolerance *= 2) {
+            int count = simplifier.simplify(track, first, last, tolerance);
+            encoded.setLength(0);
+            if (PolylineEncoder.encode(track, simplifier.getIndices(), count, encoded, maxLength)) {
+                return encoded.toString();
+            }
+        }
+        return null;
+    }
+}
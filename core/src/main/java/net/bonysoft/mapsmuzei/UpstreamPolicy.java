@@ -0,0 +1,89 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.IOException;
+
+/**
+ * Circuit breaker and daily request budget of one of the services we depend on, with the limits used by the app.
+ * Time is passed in by the caller, persistence is left to it, see UpstreamGuard.
+ */
+public class UpstreamPolicy {
+
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    public static final int FAILURE_THRESHOLD = 3;
+    public static final long OPEN_MILLIS = 15L * 60 * 1000;
+
+    public static final int STATIC_MAPS_DAILY_BUDGET = 200;
+    public static final int GEOCODER_DAILY_BUDGET = 200;
+    public static final int TILES_DAILY_BUDGET = 2000;
+    public static final int OSM_STATIC_DAILY_BUDGET = 200;
+
+    private final String name;
+    private final CircuitBreaker breaker;
+    private final TokenBucket budget;
+
+    public UpstreamPolicy(String name, int dailyBudget, long now) {
+        this(name, dailyBudget, 0, 0, dailyBudget, now);
+    }
+
+    /**
+     * Restore a persisted state
+     */
+    public UpstreamPolicy(String name, int dailyBudget, int failures, long openUntil, double tokens, long lastRefill) {
+        this.name = name;
+        this.breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, failures, openUntil);
+        this.budget = new TokenBucket(dailyBudget, DAY_MILLIS, tokens, lastRefill);
+    }
+
+    /**
+     * To be called before each request
+     * @throws UpstreamUnavailableException if the breaker is open or the daily budget has been used
+     */
+    public void acquire(long now) throws UpstreamUnavailableException {
+        if (!breaker.allowRequest(now)) {
+            throw new UpstreamUnavailableException(name + " circuit open", breaker.getOpenUntil());
+        }
+        if (!budget.tryAcquire(now)) {
+            throw new UpstreamUnavailableException(name + " daily budget exhausted", now + budget.getWaitMillis(now));
+        }
+    }
+
+    public void onSuccess() {
+        breaker.onSuccess();
+    }
+
+    /**
+     * Record a failed request. HTTP 429 and 5xx responses with a Retry-After header open the breaker until then
+     */
+    public void onFailure(IOException e, long now) {
+        if (e instanceof HttpStatusException && ((HttpStatusException) e).isThrottling()
+            && ((HttpStatusException) e).retryAt > now) {
+            breaker.openUntil(((HttpStatusException) e).retryAt);
+        }
+        else {
+            breaker.onFailure(now);
+        }
+    }
+
+    /**
+     * @return the earliest time at which a request could be allowed, now if the breaker is closed
+     */
+    public long getRetryAt(long now) {
+        return Math.max(breaker.isOpen(now) ? breaker.getOpenUntil() : now, now + budget.getWaitMillis(now));
+    }
+
+    public int getFailures() {
+        return breaker.getFailures();
+    }
+
+    public long getOpenUntil() {
+        return breaker.getOpenUntil();
+    }
+
+    public double getTokens() {
+        return budget.getTokens();
+    }
+
+    public long getLastRefill() {
+        return budget.getLastRefill();
+    }
+}
@@ -0,0 +1,19 @@
+package net.bonysoft.mapsmuzei;
+
+import java.io.IOException;
+
+/**
+ * A request has not been made, because the circuit breaker is open or the request budget is exhausted
+ */
+public class UpstreamUnavailableException extends IOException {
+
+    /**
+     * The earliest time at which the upstream can be called again
+     */
+    public final long retryAt;
+
+    public UpstreamUnavailableException(String message, long retryAt) {
+        super(message);
+        this.retryAt = retryAt;
+    }
+}
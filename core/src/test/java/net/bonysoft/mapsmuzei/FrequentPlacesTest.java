@@ -0,0 +1,48 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrequentPlacesTest {
+
+    private static final int ZOOM = 15;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private static final float HOME_LATITUDE = 45.4642f;
+    private static final float HOME_LONGITUDE = 9.19f;
+
+    @Test
+    public void fixInsidePlaceFindsTheWarmedLocation() {
+        FrequentPlaces places = new FrequentPlaces();
+        for (int day = 0; day < 5; day++) {
+            places.record(HOME_LATITUDE + day * 0.0002f, HOME_LONGITUDE - day * 0.0002f, day * 24 * HOUR_MILLIS, 20);
+        }
+        int[] predicted = new int[1];
+        assertEquals(1, places.predict(-1, 19, 4, 5 * 24 * HOUR_MILLIS, predicted));
+        float[] warmed = MapLocations.snapToGrid(places.getLatitude(predicted[0]), places.getLongitude(predicted[0]),
+                                                 ZOOM, MapLocations.SNAP_PIXELS);
+
+        // About 200 m north of home: a different cell, but still the same place
+        float latitude = HOME_LATITUDE + 0.0018f;
+        float[] raw = MapLocations.snapToGrid(latitude, HOME_LONGITUDE, ZOOM, MapLocations.SNAP_PIXELS);
+        assertFalse(raw[0] == warmed[0] && raw[1] == warmed[1]);
+
+        int place = places.find(latitude, HOME_LONGITUDE);
+        assertEquals(predicted[0], place);
+        float[] centre = MapLocations.snapToGrid(places.getLatitude(place), places.getLongitude(place),
+                                                 ZOOM, MapLocations.SNAP_PIXELS);
+        assertArrayEquals(warmed, centre, 0f);
+    }
+
+    @Test
+    public void fixOutsideRadiusIsNotInPlace() {
+        FrequentPlaces places = new FrequentPlaces();
+        places.record(HOME_LATITUDE, HOME_LONGITUDE, 0, 20);
+        assertEquals(-1, places.find(HOME_LATITUDE + 0.01f, HOME_LONGITUDE));
+        assertTrue(places.find(HOME_LATITUDE + 0.001f, HOME_LONGITUDE) >= 0);
+    }
+}
@@ -0,0 +1,47 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImageSpecTest {
+
+    private static final int MEMORY_CLASS = 256;
+
+    @Test
+    public void similarScreensShowTheSameArea() {
+        ImageSpec smaller = ImageSpec.choose(1000, 2f, MEMORY_CLASS, false, false, false);
+        ImageSpec larger = ImageSpec.choose(1100, 2f, MEMORY_CLASS, false, false, false);
+
+        assertEquals(2, smaller.scale);
+        assertEquals(2, larger.scale);
+        assertTrue(Math.abs(larger.size - smaller.size) <= 64);
+    }
+
+    @Test
+    public void scaleDependsOnDensityOnly() {
+        assertEquals(1, ImageSpec.choose(2048, 1f, MEMORY_CLASS, false, false, false).scale);
+        assertEquals(2, ImageSpec.choose(800, 1.5f, MEMORY_CLASS, false, false, false).scale);
+        assertEquals(2, ImageSpec.choose(2560, 3.5f, MEMORY_CLASS, false, false, false).scale);
+    }
+
+    @Test
+    public void dataSaverKeepsTheArea() {
+        ImageSpec normal = ImageSpec.choose(1920, 3f, MEMORY_CLASS, false, false, false);
+        ImageSpec saving = ImageSpec.choose(1920, 3f, MEMORY_CLASS, false, true, false);
+
+        assertEquals(normal.size, saving.size);
+        assertEquals(1, saving.scale);
+        assertEquals(ImageSpec.FORMAT_JPG, saving.format);
+    }
+
+    @Test
+    public void lowMemoryDevicesKeepTheAreaWithinTheLimit() {
+        ImageSpec normal = ImageSpec.choose(1920, 3f, MEMORY_CLASS, false, false, false);
+        ImageSpec lowMemory = ImageSpec.choose(1920, 3f, ImageSpec.LOW_MEMORY_CLASS, false, false, false);
+
+        assertEquals(normal.size, lowMemory.size);
+        assertTrue(lowMemory.getPixels() <= ImageSpec.LOW_MEMORY_MAX_PIXELS);
+    }
+}
@@ -0,0 +1,85 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PathSimplifierTest {
+
+    private static final double TOLERANCE = 0.001;
+
+    @Test
+    public void keepsEndpointsOfStraightLine() {
+        TrackBuffer track = new TrackBuffer(100);
+        for (int i = 0; i < 100; i++) {
+            track.add(i * 0.0001f, 0, i);
+        }
+        PathSimplifier simplifier = new PathSimplifier();
+        assertEquals(2, simplifier.simplify(track, 0, 100, TOLERANCE));
+        assertEquals(0, simplifier.getIndices()[0]);
+        assertEquals(99, simplifier.getIndices()[1]);
+    }
+
+    @Test
+    public void keepsCornerBeyondTolerance() {
+        TrackBuffer track = new TrackBuffer(21);
+        for (int i = 0; i <= 10; i++) {
+            track.add(i * 0.001f, 0, i);
+        }
+        for (int i = 1; i <= 10; i++) {
+            track.add(0.01f, i * 0.001f, 10 + i);
+        }
+        PathSimplifier simplifier = new PathSimplifier();
+        assertEquals(3, simplifier.simplify(track, 0, 21, TOLERANCE));
+        assertEquals(10, simplifier.getIndices()[1]);
+    }
+
+    @Test
+    public void droppedFixesAreWithinTolerance() {
+        TrackBuffer track = new TrackBuffer(500);
+        for (int i = 0; i < 500; i++) {
+            track.add((float) (45 + Math.sin(i * 0.05) * 0.01), (float) (9 + i * 0.0002), i);
+        }
+        PathSimplifier simplifier = new PathSimplifier();
+        int kept = simplifier.simplify(track, 0, 500, TOLERANCE);
+        int[] indices = simplifier.getIndices();
+        assertTrue(kept > 2 && kept < 500);
+        assertEquals(0, indices[0]);
+        assertEquals(499, indices[kept - 1]);
+
+        double scale = Math.cos(Math.toRadians(track.getLatitude(0)));
+        for (int k = 1; k < kept; k++) {
+            int start = indices[k - 1];
+            int end = indices[k];
+            for (int i = start + 1; i < end; i++) {
+                double distance = distanceToSegment(track, scale, start, end, i);
+                assertTrue("fix " + i + " is " + distance + " away", distance <= TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void simplifiesRangeOfTrack() {
+        TrackBuffer track = new TrackBuffer(50);
+        for (int i = 0; i < 50; i++) {
+            track.add(i * 0.0001f, 0, i);
+        }
+        PathSimplifier simplifier = new PathSimplifier();
+        assertEquals(2, simplifier.simplify(track, 10, 30, TOLERANCE));
+        assertEquals(10, simplifier.getIndices()[0]);
+        assertEquals(29, simplifier.getIndices()[1]);
+        assertEquals(0, simplifier.simplify(track, 30, 30, TOLERANCE));
+    }
+
+    private static double distanceToSegment(TrackBuffer track, double scale, int start, int end, int i) {
+        double ax = track.getLongitude(start) * scale;
+        double ay = track.getLatitude(start);
+        double dx = track.getLongitude(end) * scale - ax;
+        double dy = track.getLatitude(end) - ay;
+        double px = track.getLongitude(i) * scale - ax;
+        double py = track.getLatitude(i) - ay;
+        double length = Math.sqrt(dx * dx + dy * dy);
+        return length == 0 ? Math.sqrt(px * px + py * py) : Math.abs(px * dy - py * dx) / length;
+    }
+}
@@ -0,0 +1,102 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerceptualHashTest {
+
+    private static final int SIZE = 64;
+
+    private static final int SEA = 0xaad3df;
+    private static final int LAND = 0xf2efe9;
+
+    private final PerceptualHash hasher = new PerceptualHash();
+
+    @Test
+    public void uniformImagesOfDifferentColoursAreNotLookalikes() {
+        long sea = hasher.compute(uniform(SEA, 0), SIZE, SIZE);
+        int seaColor = hasher.getMeanColor();
+        long land = hasher.compute(uniform(LAND, 0), SIZE, SIZE);
+        int landColor = hasher.getMeanColor();
+
+        assertEquals(0, PerceptualHash.distance(sea, land));
+        assertFalse(PerceptualHash.isLookalike(sea, seaColor, land, landColor));
+    }
+
+    @Test
+    public void noisyImagesOfSameColourAreLookalikes() {
+        long first = hasher.compute(uniform(SEA, 1), SIZE, SIZE);
+        int firstColor = hasher.getMeanColor();
+        long second = hasher.compute(uniform(SEA, 2), SIZE, SIZE);
+        int secondColor = hasher.getMeanColor();
+
+        assertTrue(PerceptualHash.isLookalike(first, firstColor, second, secondColor));
+    }
+
+    @Test
+    public void differentImagesOfSameMeanColourAreNotLookalikes() {
+        long horizontal = hasher.compute(gradient(true), SIZE, SIZE);
+        int horizontalColor = hasher.getMeanColor();
+        long vertical = hasher.compute(gradient(false), SIZE, SIZE);
+        int verticalColor = hasher.getMeanColor();
+
+        assertEquals(horizontalColor, verticalColor);
+        assertFalse(PerceptualHash.isLookalike(horizontal, horizontalColor, vertical, verticalColor));
+    }
+
+    @Test
+    public void computesMeanColour() {
+        hasher.compute(uniform(LAND, 0), SIZE, SIZE);
+        assertEquals(LAND, hasher.getMeanColor());
+    }
+
+    /**
+     * @param seed the seed of a +-1 noise on each channel, or 0 for none
+     */
+    private static EffectProcessor.Surface uniform(int color, long seed) {
+        int[] image = new int[SIZE * SIZE];
+        Random random = new Random(seed);
+        for (int i = 0; i < image.length; i++) {
+            int noise = seed != 0 ? random.nextInt(3) - 1 : 0;
+            image[i] = color + noise * 0x010101;
+        }
+        return new ArraySurface(image);
+    }
+
+    /**
+     * Black to white from left to right, or from right to left
+     */
+    private static EffectProcessor.Surface gradient(boolean leftToRight) {
+        int[] image = new int[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int value = (leftToRight ? x : SIZE - 1 - x) * 255 / (SIZE - 1);
+                image[y * SIZE + x] = value * 0x010101;
+            }
+        }
+        return new ArraySurface(image);
+    }
+
+    private static class ArraySurface implements EffectProcessor.Surface {
+        private final int[] image;
+
+        ArraySurface(int[] image) {
+            this.image = image;
+        }
+
+        @Override
+        public void read(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(image, top * SIZE, buffer, offset, rows * SIZE);
+        }
+
+        @Override
+        public void write(int[] buffer, int offset, int top, int rows) {
+            System.arraycopy(buffer, offset, image, top * SIZE, rows * SIZE);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PolylineEncoderTest {
+
+    private static TrackBuffer createTrack() {
+        // The example of the algorithm documentation
+        TrackBuffer track = new TrackBuffer(3);
+        track.add(38.5f, -120.2f, 1);
+        track.add(40.7f, -120.95f, 2);
+        track.add(43.252f, -126.453f, 3);
+        return track;
+    }
+
+    @Test
+    public void encodesDocumentationExampleEscapedForUrl() {
+        StringBuilder out = new StringBuilder();
+        assertTrue(PolylineEncoder.encode(createTrack(), new int[]{0, 1, 2}, 3, out, 100));
+        // _p~iF~ps|U_ulLnnqC_mqNvxq`@ with | and ` escaped
+        assertEquals("_p~iF~ps%7CU_ulLnnqC_mqNvxq%60@", out.toString());
+    }
+
+    @Test
+    public void encodesOnlyTheGivenIndices() {
+        StringBuilder out = new StringBuilder("path=");
+        assertTrue(PolylineEncoder.encode(createTrack(), new int[]{0}, 1, out, 100));
+        assertEquals("path=_p~iF~ps%7CU", out.toString());
+    }
+
+    @Test
+    public void failsWhenLongerThanMaxLength() {
+        StringBuilder out = new StringBuilder();
+        assertFalse(PolylineEncoder.encode(createTrack(), new int[]{0, 1, 2}, 3, out, 20));
+    }
+}
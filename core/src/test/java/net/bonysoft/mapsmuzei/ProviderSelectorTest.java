@@ -0,0 +1,48 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderSelectorTest {
+
+    private static final long NOW = 1000000000L;
+
+    private final MapProvider google = new GoogleStaticMapsProvider("key");
+    private final MapProvider osm = new OsmStaticMapProvider(OsmStaticMapProvider.DEFAULT_BASE_URL);
+    private final List<MapProvider> providers = Arrays.asList(google, osm);
+
+    @Test
+    public void restoredEstimatesRankLikeTheOriginal() {
+        ProviderSelector selector = new ProviderSelector();
+        selector.onSuccess(osm, 100, NOW);
+        selector.onFailure(google, 20000, NOW);
+        selector.onFailure(google, 20000, NOW);
+
+        ProviderSelector restored = new ProviderSelector();
+        restored.restore(selector.save());
+
+        assertEquals(selector.getScore(google, NOW), restored.getScore(google, NOW), 1e-9);
+        assertEquals(selector.getScore(osm, NOW), restored.getScore(osm, NOW), 1e-9);
+        assertFalse(restored.isHealthy(google, NOW));
+        assertEquals(osm, restored.rank(providers, MapTheme.getDefault(), null, NOW)[0]);
+    }
+
+    @Test
+    public void skipsMalformedEntries() {
+        ProviderSelector selector = new ProviderSelector();
+        selector.onSuccess(osm, 100, NOW);
+        double fresh = new ProviderSelector().getScore(google, NOW);
+
+        ProviderSelector restored = new ProviderSelector();
+        restored.restore(selector.save() + ";google,fast,0,0;broken");
+        assertEquals(selector.getScore(osm, NOW), restored.getScore(osm, NOW), 1e-9);
+        assertEquals(fresh, restored.getScore(google, NOW), 1e-9);
+        assertTrue(restored.isHealthy(google, NOW));
+    }
+}
@@ -0,0 +1,90 @@
+package net.bonysoft.mapsmuzei;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrackBufferTest {
+
+    @Test
+    public void keepsFixesInOrderUntilFull() {
+        TrackBuffer track = new TrackBuffer(4);
+        for (int i = 1; i <= 3; i++) {
+            track.add(i, -i, i * 1000);
+        }
+        assertEquals(3, track.size());
+        assertEquals(1f, track.getLatitude(0), 0f);
+        assertEquals(-3f, track.getLongitude(2), 0f);
+        assertEquals(3000, track.getTimestamp(2));
+    }
+
+    @Test
+    public void overwritesOldestWhenFull() {
+        TrackBuffer track = new TrackBuffer(4);
+        for (int i = 1; i <= 10; i++) {
+            track.add(i, -i, i * 1000);
+        }
+        assertEquals(4, track.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(7 + i, track.getLatitude(i), 0f);
+            assertEquals(-(7 + i), track.getLongitude(i), 0f);
+            assertEquals((7 + i) * 1000, track.getTimestamp(i));
+        }
+    }
+
+    @Test
+    public void findsFirstFixSinceTimestampAcrossWraparound() {
+        TrackBuffer track = new TrackBuffer(4);
+        for (int i = 1; i <= 6; i++) {
+            track.add(i, i, i * 1000);
+        }
+        assertEquals(0, track.firstSince(0));
+        assertEquals(1, track.firstSince(3500));
+        assertEquals(1, track.firstSince(4000));
+        assertEquals(3, track.firstSince(6000));
+        assertEquals(4, track.firstSince(6001));
+    }
+
+    @Test
+    public void readsPartiallyFilledRing() {
+        ByteBuffer ring = ByteBuffer.allocate(3 * TrackBuffer.RECORD_SIZE);
+        for (int i = 1; i <= 3; i++) {
+            TrackBuffer.putRecord(ring, i, -i, i * 1000);
+        }
+        ring.flip();
+        TrackBuffer track = new TrackBuffer(8);
+        assertEquals(3, track.readRing(ring));
+        assertEquals(3, track.size());
+        assertEquals(1f, track.getLatitude(0), 0f);
+        assertEquals(3000, track.getTimestamp(2));
+    }
+
+    @Test
+    public void readsWrappedRingOldestFirst() {
+        int capacity = 4;
+        ByteBuffer ring = ByteBuffer.allocate(capacity * TrackBuffer.RECORD_SIZE);
+        // Six fixes written in a ring of four slots: the last two overwrite the first two
+        for (int i = 1; i <= 6; i++) {
+            ring.position((i - 1) % capacity * TrackBuffer.RECORD_SIZE);
+            TrackBuffer.putRecord(ring, i, -i, i * 1000);
+        }
+        ring.clear();
+        TrackBuffer track = new TrackBuffer(capacity);
+        assertEquals(2, track.readRing(ring));
+        assertEquals(4, track.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(3 + i, track.getLatitude(i), 0f);
+            assertEquals((3 + i) * 1000, track.getTimestamp(i));
+        }
+    }
+
+    @Test
+    public void readsEmptyRing() {
+        TrackBuffer track = new TrackBuffer(4);
+        track.add(1, 1, 1000);
+        assertEquals(0, track.readRing(ByteBuffer.allocate(0)));
+        assertEquals(0, track.size());
+    }
+}
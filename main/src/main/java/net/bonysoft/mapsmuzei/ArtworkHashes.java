@@ -0,0 +1,150 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Perceptual hashes of the last published artworks, used to skip a new map which looks like the current one,
+ * e.g. open sea or desert at slightly different coordinates. Only maps drawn with the same settings are compared,
+ * so that changing the zoom, theme or effects always publishes the new map.
+ */
+public class ArtworkHashes {
+    private static final String TAG = ArtworkHashes.class.getSimpleName();
+
+    private static final String PREFS_NAME = "artwork_hashes";
+    private static final String KEY_HISTORY = "history";
+    private static final String KEY_TOKEN = "token";
+    private static final String KEY_HASH = "hash";
+    private static final String KEY_COLOR = "color";
+
+    private static final int HISTORY_SIZE = 8;
+    /**
+     * The hash is computed on a copy subsampled to about this size, more than enough for a 9x8 grid
+     */
+    private static final int HASH_IMAGE_SIZE = 64;
+
+    private static ArtworkHashes sInstance;
+
+    private final SharedPreferences storage;
+    private final PerceptualHash hasher = new PerceptualHash();
+    private final BitmapSurface surface = new BitmapSurface();
+    private final LinkedHashMap<String, Fingerprint> history = new LinkedHashMap<String, Fingerprint>();
+
+    public static synchronized ArtworkHashes getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ArtworkHashes(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ArtworkHashes(Context context) {
+        storage = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    /**
+     * @throws IOException if the image can't be decoded
+     */
+    public synchronized Fingerprint hash(File image) throws IOException {
+        Bitmap bitmap = BitmapDecoder.decode(image, HASH_IMAGE_SIZE, true);
+        try {
+            surface.bitmap = bitmap;
+            long hash = hasher.compute(surface, bitmap.getWidth(), bitmap.getHeight());
+            return new Fingerprint(hash, hasher.getMeanColor());
+        }
+        finally {
+            surface.bitmap = null;
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    /**
+     * @param currentToken the token of the current artwork
+     * @param token the token of the new artwork
+     * @return true if the new artwork has the same settings as the current one, and looks the same
+     */
+    public synchronized boolean isLookalike(String currentToken, String token, Fingerprint fingerprint) {
+        if (currentToken == null || !getSettings(currentToken).equals(getSettings(token))) {
+            return false;
+        }
+        Fingerprint current = history.get(currentToken);
+        return current != null && PerceptualHash.isLookalike(current.hash, current.meanColor,
+                                                             fingerprint.hash, fingerprint.meanColor);
+    }
+
+    /**
+     * Remember the hash of a published artwork
+     */
+    public synchronized void record(String token, Fingerprint fingerprint) {
+        history.remove(token);
+        history.put(token, fingerprint);
+        Iterator<String> eldest = history.keySet().iterator();
+        while (history.size() > HISTORY_SIZE) {
+            eldest.next();
+            eldest.remove();
+        }
+        save();
+    }
+
+    /**
+     * @return the part of the token following the coordinates of the centre
+     */
+    private static String getSettings(String token) {
+        int comma = token.indexOf(',');
+        comma = comma >= 0 ? token.indexOf(',', comma + 1) : -1;
+        return comma >= 0 ? token.substring(comma + 1) : token;
+    }
+
+    private void load() {
+        try {
+            JSONArray array = new JSONArray(storage.getString(KEY_HISTORY, "[]"));
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject entry = array.getJSONObject(i);
+                history.put(entry.getString(KEY_TOKEN),
+                            new Fingerprint(entry.getLong(KEY_HASH), entry.getInt(KEY_COLOR)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Corrupted artwork hashes", e);
+            history.clear();
+        }
+    }
+
+    private void save() {
+        JSONArray array = new JSONArray();
+        try {
+            for (Map.Entry<String, Fingerprint> entry : history.entrySet()) {
+                array.put(new JSONObject().put(KEY_TOKEN, entry.getKey())
+                                          .put(KEY_HASH, entry.getValue().hash)
+                                          .put(KEY_COLOR, entry.getValue().meanColor));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to save the artwork hashes", e);
+            return;
+        }
+        storage.edit().putString(KEY_HISTORY, array.toString()).apply();
+    }
+
+    /**
+     * The perceptual hash of an artwork, together with its mean colour
+     */
+    public static class Fingerprint {
+        final long hash;
+        final int meanColor;
+
+        Fingerprint(long hash, int meanColor) {
+            this.hash = hash;
+            this.meanColor = meanColor;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.bonysoft.mapsmuzei;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes the map images using as little memory as possible: images larger than needed are subsampled while
+ * decoding, opaque images are decoded to RGB_565 when the caller can live with it, and the pixels go into
+ * bitmaps reused from the {@link BitmapPool}. The bitmaps returned are mutable, and should be given back to the
+ * pool when no longer used.
+ */
+public class BitmapDecoder {
+    private static final String TAG = BitmapDecoder.class.getSimpleName();
+
+    private static final String MIME_TYPE_JPEG = "image/jpeg";
+
+    /**
+     * Decode a file, subsampled so that it is not much larger than the target size
+     * @param targetSize the smallest width and height needed, or 0 for the full size
+     * @param allowRgb565 whether an opaque image can be decoded with 16 bits per pixel, e.g. for previews. Images
+     *                    which will be processed and encoded again should keep 32 bits
+     * @throws IOException if the file is not a valid image
+     */
+    public static Bitmap decode(File file, int targetSize, boolean allowRgb565) throws IOException {
+        String path = file.getAbsolutePath();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Unable to decode " + file);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, targetSize);
+        // Only JPEG images are known to be opaque before decoding them
+        options.inPreferredConfig = allowRgb565 && MIME_TYPE_JPEG.equals(options.outMimeType) ? Bitmap.Config.RGB_565
+                                                                                              : Bitmap.Config.ARGB_8888;
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        Bitmap bitmap = decodeReusing(path, null, options, width, height);
+        if (bitmap == null) {
+            throw new IOException("Unable to decode " + file);
+        }
+        RefreshMetrics.getInstance().sampleHeap();
+        return bitmap;
+    }
+
+    /**
+     * @return the MIME type of the image, or null if it is not a valid image. Only the header is decoded
+     */
+    public static String getMimeType(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        return options.outMimeType;
+    }
+
+    /**
+     * Decode an image of known size from a stream, which can be read only once and is not subsampled
+     * @param isOpaque whether the image is known to have no alpha, so that it can be decoded to RGB_565
+     * @return the image, or null if it can't be decoded
+     */
+    public static Bitmap decode(InputStream in, int width, int height, boolean isOpaque) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = isOpaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        // A stream can't be decoded again if the reused bitmap does not fit, only reuse one when it surely does
+        Bitmap bitmap = decodeReusing(null, in, options, width, height);
+        RefreshMetrics.getInstance().sampleHeap();
+        return bitmap;
+    }
+
+    /**
+     * @return the largest power of two which keeps both sides of the image not smaller than the target size
+     */
+    static int getSampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        if (targetSize <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodeReusing(String path, InputStream in, BitmapFactory.Options options,
+                                        int width, int height) {
+        options.inMutable = true;
+        // Before KitKat reused bitmaps can't be subsampled into
+        if (options.inSampleSize <= 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.inBitmap = BitmapPool.getInstance().get(width, height, options.inPreferredConfig);
+        }
+        Bitmap reused = options.inBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = path != null ? BitmapFactory.decodeFile(path, options)
+                                  : BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap does not fit after all, e.g. the image is not as large as expected
+            if (BuildConfig.DEBUG) Log.d(TAG, "Unable to reuse a bitmap of " + width + "x" + height);
+            options.inBitmap = null;
+            // Part of the stream has been consumed already
+            bitmap = path != null ? BitmapFactory.decodeFile(path, options) : null;
+        }
+        if (reused != null && bitmap != reused) {
+            BitmapPool.getInstance().put(reused);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,140 @@
+package net.bonysoft.mapsmuzei;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Mutable bitmaps no longer in use, to be reused by {@link BitmapDecoder} instead of allocating new ones.
+ * Bitmaps are kept in buckets by their allocation size, rounded up to a power of two, and the least recently
+ * returned ones are recycled when the pool grows beyond its budget.
+ * Before KitKat a bitmap can be reused only for an image of the very same size and configuration.
+ */
+public class BitmapPool {
+    private static final String TAG = BitmapPool.class.getSimpleName();
+
+    /**
+     * Enough for a full size map and a few previews
+     */
+    private static final long MAX_BYTES = 24L * 1024 * 1024;
+
+    private static final BitmapPool sInstance = new BitmapPool(MAX_BYTES);
+
+    private final long maxBytes;
+    private final SparseArray<List<Bitmap>> buckets = new SparseArray<List<Bitmap>>();
+    private final LinkedList<Bitmap> returned = new LinkedList<Bitmap>();
+    private long bytes;
+    private int hits;
+    private int misses;
+
+    public static BitmapPool getInstance() {
+        return sInstance;
+    }
+
+    BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return a bitmap which can be reused for an image of the given size and configuration, or null. The
+     * content of the bitmap is undefined
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int needed = width * height * getBytesPerPixel(config);
+        // A bitmap of the next bucket may also fit, it is better than allocating
+        int first = bucketFor(needed);
+        for (int bucket = first; bucket <= first + 1; bucket++) {
+            List<Bitmap> candidates = buckets.get(bucket);
+            if (candidates == null) {
+                continue;
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                Bitmap candidate = candidates.get(i);
+                if (fits(candidate, width, height, config, needed)) {
+                    candidates.remove(i);
+                    returned.remove(candidate);
+                    bytes -= getAllocationBytes(candidate);
+                    hits++;
+                    return candidate;
+                }
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Give back a bitmap which is no longer used, it must not be drawn or read afterwards
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        int size = getAllocationBytes(bitmap);
+        if (size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        int bucket = bucketFor(size);
+        List<Bitmap> candidates = buckets.get(bucket);
+        if (candidates == null) {
+            candidates = new ArrayList<Bitmap>();
+            buckets.put(bucket, candidates);
+        }
+        candidates.add(bitmap);
+        returned.addLast(bitmap);
+        bytes += size;
+        while (bytes > maxBytes) {
+            Bitmap eldest = returned.removeFirst();
+            int eldestSize = getAllocationBytes(eldest);
+            buckets.get(bucketFor(eldestSize)).remove(eldest);
+            bytes -= eldestSize;
+            eldest.recycle();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : returned) {
+            bitmap.recycle();
+        }
+        returned.clear();
+        buckets.clear();
+        bytes = 0;
+        if (BuildConfig.DEBUG) Log.d(TAG, "Cleared, " + hits + " hits and " + misses + " misses so far");
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static boolean fits(Bitmap candidate, int width, int height, Bitmap.Config config, int needed) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return getAllocationBytes(candidate) >= needed;
+        }
+        return candidate.getWidth() == width && candidate.getHeight() == height && candidate.getConfig() == config;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationBytes(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? bitmap.getAllocationByteCount()
+                                                                     : bitmap.getByteCount();
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        return config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444 ? 2
+               : config == Bitmap.Config.ALPHA_8 ? 1 : 4;
+    }
+
+    /**
+     * @return the exponent of the smallest power of two not less than the size
+     */
+    private static int bucketFor(int size) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+    }
+}
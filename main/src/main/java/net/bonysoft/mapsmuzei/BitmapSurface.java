@@ -0,0 +1,20 @@
+package net.bonysoft.mapsmuzei;
+
+import android.graphics.Bitmap;
+
+/**
+ * Gives the {@link EffectProcessor} and the {@link PerceptualHash} access to the rows of a bitmap
+ */
+class BitmapSurface implements EffectProcessor.Surface {
+    Bitmap bitmap;
+
+    @Override
+    public void read(int[] pixels, int offset, int top, int rows) {
+        bitmap.getPixels(pixels, offset, bitmap.getWidth(), 0, top, bitmap.getWidth(), rows);
+    }
+
+    @Override
+    public void write(int[] pixels, int offset, int top, int rows) {
+        bitmap.setPixels(pixels, offset, bitmap.getWidth(), 0, top, bitmap.getWidth(), rows);
+    }
+}
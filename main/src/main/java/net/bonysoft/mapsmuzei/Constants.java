@@ -7,6 +7,27 @@ public class Constants {
     public static final String PREF_INVERTED = "light_inverted";
     public static final String PREF_UPDATE_INTERVAL = "update_interval";
     public static final String PREF_WIFI_ONLY = "wifi_only";
+    public static final String PREF_ADAPTIVE_REFRESH = "adaptive_refresh";
+    public static final String PREF_PREFETCH_DEPTH = "prefetch_depth";
+    public static final String PREF_PREFETCH_BUDGET = "prefetch_budget";
+    public static final String PREF_RENDER_MODE = "render_mode";
+    public static final String PREF_TILE_URL_TEMPLATE = "tile_url_template";
+    public static final String PREF_OSM_STATIC_URL = "osm_static_url";
+    public static final String PREF_DATA_SAVER = "data_saver";
+    public static final String PREF_LOCATION_POWER = "location_power";
+    public static final String PREF_SHOW_TRACK = "show_track";
+    public static final String PREF_DIM = "dim";
+    public static final String PREF_EFFECT = "effect";
+
+    // Render modes
+    public static final int RENDER_MODE_STATIC_MAPS = 0;
+    public static final int RENDER_MODE_TILES = 1;
+    public static final int RENDER_MODE_OSM_STATIC = 2;
+    public static final int RENDER_MODE_AUTOMATIC = 3;
+
+    // Statistics keys
+    public static final String STAT_SKIPPED_PUBLISHES = "stat_skipped_publishes";
+    public static final String STAT_PROVIDER_ESTIMATES = "stat_provider_estimates";
 
     // Default values
     public static final boolean PREF_INVERTED_DEFAULT = true;
@@ -14,4 +35,13 @@ public class Constants {
     public static final int PREF_ZOOM_DEFAULT = 15;
     public static final int PREF_UPDATE_INTERVAL_DEFAULT = 1;
     public static final boolean PREF_WIFI_ONLY_DEFAULT = false;
+    public static final boolean PREF_ADAPTIVE_REFRESH_DEFAULT = false;
+    public static final int PREF_PREFETCH_DEPTH_DEFAULT = 0;
+    public static final int PREF_PREFETCH_BUDGET_DEFAULT = 1;
+    public static final int PREF_RENDER_MODE_DEFAULT = RENDER_MODE_STATIC_MAPS;
+    public static final boolean PREF_DATA_SAVER_DEFAULT = false;
+    public static final int PREF_LOCATION_POWER_DEFAULT = LocationProvider.POWER_BALANCED;
+    public static final boolean PREF_SHOW_TRACK_DEFAULT = false;
+    public static final int PREF_DIM_DEFAULT = 0;
+    public static final int PREF_EFFECT_DEFAULT = ImageEffects.PRESET_NONE;
 }
@@ -0,0 +1,93 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Applies the local effects chosen by the user to a map image, so that they work with any map type and changing
+ * them does not need a new download. The result is stored in the {@link ImageCache} next to the source image,
+ * keyed by the source and the effects. The pixel buffers are reused between images, and the decoded bitmaps
+ * through the {@link BitmapPool}.
+ * <p/>
+ * The peak memory is the whole source image decoded at 4 bytes per pixel (up to 16MB for the largest maps):
+ * the JPEG and PNG encoders need the full bitmap, so decoding and writing it in bands would not save anything.
+ * Only the processing itself works on bands.
+ */
+public class EffectRenderer {
+    private static final String TAG = EffectRenderer.class.getSimpleName();
+
+    private static final int JPEG_QUALITY = 90;
+
+    private static EffectRenderer sInstance;
+
+    private final ImageCache images;
+    private final EffectProcessor processor = new EffectProcessor();
+    private final BitmapSurface surface = new BitmapSurface();
+
+    public static synchronized EffectRenderer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EffectRenderer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private EffectRenderer(Context context) {
+        images = ImageCache.getInstance(context);
+    }
+
+    /**
+     * @param source the image to process
+     * @param sourceKey the key of the image in its cache
+     * @return the key of the processed image in the {@link ImageCache}, or sourceKey if there are no effects
+     * @throws IOException if the image can't be decoded or written
+     */
+    public synchronized String apply(File source, String sourceKey, ImageEffects effects) throws IOException {
+        if (effects.isIdentity()) {
+            return sourceKey;
+        }
+        String request = sourceKey + "|" + effects;
+        String key = ImageCache.keyFor(request);
+        if (images.contains(key)) {
+            images.touch(key);
+            return key;
+        }
+
+        long stageStart = RefreshMetrics.now();
+        final boolean isJpeg = "image/jpeg".equals(BitmapDecoder.getMimeType(source));
+        // Full size and 32 bits, the result is encoded again: this bitmap is the peak memory of the effects
+        final Bitmap bitmap = BitmapDecoder.decode(source, 0, false);
+        try {
+            surface.bitmap = bitmap;
+            processor.resetTimings();
+            processor.process(surface, bitmap.getWidth(), bitmap.getHeight(), effects);
+            RefreshMetrics.getInstance().sampleHeap();
+
+            key = images.put(request, new ImageCache.ImageWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    bitmap.compress(isJpeg ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG, JPEG_QUALITY, out);
+                }
+            });
+        }
+        finally {
+            surface.bitmap = null;
+            BitmapPool.getInstance().put(bitmap);
+        }
+
+        RefreshMetrics metrics = RefreshMetrics.getInstance();
+        long[] effectNanos = processor.getEffectNanos();
+        for (int effect = 0; effect < EffectProcessor.EFFECTS_COUNT; effect++) {
+            if (effectNanos[effect] > 0) {
+                metrics.recordDuration(RefreshMetrics.STAGE_FIRST_EFFECT + effect, effectNanos[effect]);
+            }
+        }
+        metrics.record(RefreshMetrics.STAGE_EFFECTS, stageStart);
+        if (BuildConfig.DEBUG) Log.d(TAG, "Applied " + effects + " to " + sourceKey);
+        return key;
+    }
+}
@@ -0,0 +1,221 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Address;
+import android.location.Geocoder;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-tier cache (memory LRU + SharedPreferences on disk) for the reverse geocoding results,
+ * keyed by the map grid cell containing the location at the current zoom level.
+ * Failed lookups are cached too, for a shorter time, so that we don't hit the Geocoder again
+ * on every refresh while the network is down. Meanwhile the nearest place known by the
+ * {@link OfflineGeocoder} is used, if any. The disk tier holds only the entries, the hit and miss counters are
+ * kept in memory by {@link RefreshMetrics}.
+ */
+public class GeocodeCache {
+    private static final String TAG = GeocodeCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "geocode_cells";
+    private static final String KEY_PREFIX_CELL = "cell_";
+
+    private static final int CELL_PIXELS = 128;
+    private static final int MEMORY_ENTRIES = 32;
+    private static final int DISK_ENTRIES = 256;
+    // Evicting down to this leaves room for many stores before the disk tier is scanned again
+    private static final int DISK_ENTRIES_AFTER_EVICTION = DISK_ENTRIES * 3 / 4;
+    private static final long TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long FAILURE_TTL_MILLIS = 30L * 60 * 1000;
+
+    private static GeocodeCache sInstance;
+
+    private final Context context;
+    private final SharedPreferences disk;
+    private final LruCache<String, Place> memory = new LruCache<String, Place>(MEMORY_ENTRIES);
+    // Number of entries on disk, counted on the first store, which runs off the main thread
+    private int diskEntries = -1;
+
+    public static synchronized GeocodeCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GeocodeCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GeocodeCache(Context context) {
+        this.context = context;
+        this.disk = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Return the place for the given location, asking the Geocoder only if there is no valid cached entry
+     * for the grid cell containing it
+     */
+    public Place lookup(float latitude, float longitude, int zoom) {
+        String key = MapGrid.cellKey(latitude, longitude, zoom, CELL_PIXELS);
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            Place place = memory.get(key);
+            if (place == null) {
+                place = Place.deserialize(disk.getString(KEY_PREFIX_CELL + key, null));
+            }
+            if (place != null && !place.isExpired(now)) {
+                memory.put(key, place);
+                RefreshMetrics.getInstance().increment(RefreshMetrics.COUNTER_GEOCODE_HIT);
+                if (BuildConfig.DEBUG) Log.d(TAG, "Cache hit for cell " + key);
+                return place;
+            }
+            RefreshMetrics.getInstance().increment(RefreshMetrics.COUNTER_GEOCODE_MISS);
+        }
+
+        // The lock is not held while waiting for the Geocoder, so that peek() never blocks on it
+        Place place = geocode(latitude, longitude, now);
+        synchronized (this) {
+            memory.put(key, place);
+            store(key, place);
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Cache miss for cell " + key);
+        return place;
+    }
+
+    /**
+     * @return the cached place for the given location, even if expired, or null. The Geocoder is never used
+     */
+    public synchronized Place peek(float latitude, float longitude, int zoom) {
+        String key = MapGrid.cellKey(latitude, longitude, zoom, CELL_PIXELS);
+        Place place = memory.get(key);
+        return place != null ? place : Place.deserialize(disk.getString(KEY_PREFIX_CELL + key, null));
+    }
+
+    private Place geocode(float latitude, float longitude, long now) {
+        if (!Geocoder.isPresent()) {
+            return geocodeOffline(latitude, longitude, now + TTL_MILLIS);
+        }
+        Geocoder geocoder = new Geocoder(context);
+        UpstreamGuard guard = UpstreamGuard.getGeocoderInstance(context);
+        try {
+            guard.acquire();
+        } catch (UpstreamUnavailableException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Geocoder not called: " + e.getMessage());
+            return geocodeOffline(latitude, longitude, Math.min(now + FAILURE_TTL_MILLIS, e.retryAt));
+        }
+        try {
+            List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+            guard.onSuccess();
+            if (addresses != null && !addresses.isEmpty()) {
+                Address address = addresses.get(0);
+                String title = address.getMaxAddressLineIndex() > 0 ? address.getAddressLine(0) : "";
+                return new Place(title, address.getLocality(), now + TTL_MILLIS);
+            }
+            return geocodeOffline(latitude, longitude, now + TTL_MILLIS);
+        } catch (IOException e) {
+            Log.e(TAG, "IO Exception in getFromLocation(). Lat=" + latitude + ", Long=" + longitude, e);
+            guard.onFailure(e);
+            RefreshMetrics.getInstance().increment(RefreshMetrics.COUNTER_GEOCODE_FAILURE);
+            return geocodeOffline(latitude, longitude, now + FAILURE_TTL_MILLIS);
+        }
+    }
+
+    private Place geocodeOffline(float latitude, float longitude, long expiresAt) {
+        Place place = OfflineGeocoder.getInstance(context).lookup(latitude, longitude, expiresAt);
+        return place != null ? place : new Place("", "", expiresAt);
+    }
+
+    private void store(String key, Place place) {
+        if (diskEntries < 0) {
+            diskEntries = disk.getAll().size();
+        }
+        SharedPreferences.Editor editor = disk.edit();
+        String cellKey = KEY_PREFIX_CELL + key;
+        if (!disk.contains(cellKey)) {
+            if (diskEntries >= DISK_ENTRIES) {
+                diskEntries = evictExpiredAndOldest(editor);
+            }
+            diskEntries++;
+        }
+        editor.putString(cellKey, place.serialize()).apply();
+    }
+
+    /**
+     * Remove the expired entries and then the ones expiring first, down to DISK_ENTRIES_AFTER_EVICTION
+     * @return the number of entries left
+     */
+    private int evictExpiredAndOldest(SharedPreferences.Editor editor) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Long>> valid = new ArrayList<Map.Entry<String, Long>>();
+        for (Map.Entry<String, ?> entry : disk.getAll().entrySet()) {
+            Place place = entry.getValue() instanceof String ? Place.deserialize((String) entry.getValue()) : null;
+            if (place == null || place.isExpired(now)) {
+                editor.remove(entry.getKey());
+            }
+            else {
+                valid.add(new AbstractMap.SimpleEntry<String, Long>(entry.getKey(), place.expiresAt));
+            }
+        }
+        if (valid.size() > DISK_ENTRIES_AFTER_EVICTION) {
+            Collections.sort(valid, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> lhs, Map.Entry<String, Long> rhs) {
+                    return lhs.getValue().compareTo(rhs.getValue());
+                }
+            });
+            int excess = valid.size() - DISK_ENTRIES_AFTER_EVICTION;
+            for (int i = 0; i < excess; i++) {
+                editor.remove(valid.get(i).getKey());
+            }
+            return DISK_ENTRIES_AFTER_EVICTION;
+        }
+        return valid.size();
+    }
+
+    /**
+     * A cached reverse geocoding result
+     */
+    public static class Place {
+        private static final String SEPARATOR = "\n";
+
+        public final String title;
+        public final String description;
+        final long expiresAt;
+
+        Place(String title, String description, long expiresAt) {
+            this.title = title != null ? title : "";
+            this.description = description != null ? description : "";
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now > expiresAt;
+        }
+
+        String serialize() {
+            return expiresAt + SEPARATOR + title + SEPARATOR + description;
+        }
+
+        static Place deserialize(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] parts = value.split(SEPARATOR, 3);
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                return new Place(parts[1], parts[2], Long.parseLong(parts[0]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Size-bounded, LRU-evicted disk cache for the map images, keyed by a hash of the canonical request URL.
+ * Expired entries are revalidated with a conditional request (ETag / Last-Modified) instead of being
+ * downloaded again.
+ */
+public class ImageCache {
+    private static final String TAG = ImageCache.class.getSimpleName();
+
+    private static final String DIR_NAME = "images";
+    private static final String PREFETCH_DIR_NAME = "prefetch";
+    private static final String TILES_DIR_NAME = "tiles";
+    private static final String IMAGE_EXTENSION = ".img";
+    private static final String META_EXTENSION = ".meta";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "last_modified";
+    private static final String META_EXPIRES = "expires";
+
+    private static final String API_KEY_PARAM = "&key=";
+    private static final long MAX_SIZE_BYTES = 32L * 1024 * 1024;
+    private static final long TILES_MAX_SIZE_BYTES = 64L * 1024 * 1024;
+    private static final long TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String USER_AGENT = "MapsMuzei/" + BuildConfig.VERSION_NAME;
+
+    private static ImageCache sInstance;
+    private static ImageCache sPrefetchInstance;
+    private static ImageCache sTilesInstance;
+
+    private final File directory;
+    private final UpstreamGuard guard;
+    private long maxSizeBytes;
+
+    public static synchronized ImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageCache(new File(context.getApplicationContext().getCacheDir(), DIR_NAME), MAX_SIZE_BYTES,
+                                       UpstreamGuard.getStaticMapsInstance(context));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the cache holding the images downloaded in advance by the {@link PrefetchQueue}. It is kept in the
+     * files directory, so that the system does not clear it when running low on storage
+     */
+    public static synchronized ImageCache getPrefetchInstance(Context context) {
+        if (sPrefetchInstance == null) {
+            sPrefetchInstance = new ImageCache(new File(context.getApplicationContext().getFilesDir(), PREFETCH_DIR_NAME),
+                                               MAX_SIZE_BYTES, UpstreamGuard.getStaticMapsInstance(context));
+        }
+        return sPrefetchInstance;
+    }
+
+    /**
+     * @return the cache holding the map tiles used by the {@link TileCompositor}
+     */
+    public static synchronized ImageCache getTilesInstance(Context context) {
+        if (sTilesInstance == null) {
+            sTilesInstance = new ImageCache(new File(context.getApplicationContext().getCacheDir(), TILES_DIR_NAME),
+                                            TILES_MAX_SIZE_BYTES, UpstreamGuard.getTilesInstance(context));
+        }
+        return sTilesInstance;
+    }
+
+    ImageCache(File directory, long maxSizeBytes, UpstreamGuard guard) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.guard = guard;
+    }
+
+    public synchronized void setMaxSize(long maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        trimToSize();
+    }
+
+    /**
+     * Make sure the image for the given URL is in the cache, downloading or revalidating it if needed.
+     * Different images can be fetched concurrently
+     * @param url the URL of the image
+     * @return the key of the cached image, to be used with {@link #getFile(String)}
+     * @throws IOException if the image is not cached and it was not possible to download it. In particular
+     * {@link UpstreamUnavailableException} if the server should not be called now
+     */
+    public String fetch(String url) throws IOException {
+        return fetch(url, guard);
+    }
+
+    /**
+     * Same as {@link #fetch(String)}, for an image served by a different upstream than the one of this cache
+     */
+    public String fetch(String url, UpstreamGuard guard) throws IOException {
+        String key = keyFor(url);
+        File image = getFile(key);
+        File metaFile = new File(directory, key + META_EXTENSION);
+        Properties meta = readMeta(metaFile);
+
+        if (image.exists() && Long.parseLong(meta.getProperty(META_EXPIRES, "0")) > System.currentTimeMillis()) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Cache hit for " + key);
+            image.setLastModified(System.currentTimeMillis());
+            return key;
+        }
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        guard.acquire();
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            if (image.exists()) {
+                String etag = meta.getProperty(META_ETAG);
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                long lastModified = Long.parseLong(meta.getProperty(META_LAST_MODIFIED, "0"));
+                if (lastModified > 0) {
+                    connection.setIfModifiedSince(lastModified);
+                }
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && image.exists()) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Revalidated " + key);
+            }
+            else if (responseCode == HttpURLConnection.HTTP_OK) {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Cache miss for " + key);
+                download(connection.getInputStream(), image);
+                meta.clear();
+                if (connection.getHeaderField("ETag") != null) {
+                    meta.setProperty(META_ETAG, connection.getHeaderField("ETag"));
+                }
+                if (connection.getLastModified() > 0) {
+                    meta.setProperty(META_LAST_MODIFIED, String.valueOf(connection.getLastModified()));
+                }
+            }
+            else {
+                throw new HttpStatusException(responseCode, getRetryAt(connection),
+                                              "Unexpected response " + responseCode + " for " + key);
+            }
+            guard.onSuccess();
+        } catch (IOException e) {
+            guard.onFailure(e);
+            throw e;
+        }
+        finally {
+            connection.disconnect();
+        }
+
+        meta.setProperty(META_EXPIRES, String.valueOf(System.currentTimeMillis() + TTL_MILLIS));
+        writeMeta(metaFile, meta);
+        image.setLastModified(System.currentTimeMillis());
+        trimToSize();
+        return key;
+    }
+
+    /**
+     * Store an image generated locally
+     * @param request the canonical description of the image, used to compute its key
+     * @param writer the object which will write the image
+     * @return the key of the cached image
+     */
+    public String put(String request, ImageWriter writer) throws IOException {
+        String key = keyFor(request);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+        File temp = File.createTempFile(key, TEMP_EXTENSION, directory);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            writer.write(out);
+        }
+        finally {
+            out.close();
+        }
+        commit(temp, getFile(key));
+
+        Properties meta = new Properties();
+        meta.setProperty(META_EXPIRES, String.valueOf(Long.MAX_VALUE));
+        writeMeta(new File(directory, key + META_EXTENSION), meta);
+        trimToSize();
+        return key;
+    }
+
+    /**
+     * @return true if an image with the given key is in the cache, even if expired
+     */
+    public boolean contains(String key) {
+        return getFile(key).exists();
+    }
+
+    /**
+     * Mark the image with the given key as the most recently used one
+     */
+    public void touch(String key) {
+        getFile(key).setLastModified(System.currentTimeMillis());
+    }
+
+    public synchronized void remove(String key) {
+        getFile(key).delete();
+        new File(directory, key + META_EXTENSION).delete();
+    }
+
+    /**
+     * @return the file holding the cached image with the given key. It may not exist
+     */
+    public File getFile(String key) {
+        return new File(directory, key + IMAGE_EXTENSION);
+    }
+
+    /**
+     * @return true if the given string is a well formed cache key
+     */
+    public static boolean isValidKey(String key) {
+        if (key == null || key.length() != 40) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The key is computed on the canonical request, without the API key, so that changing the key
+     * does not invalidate the whole cache
+     */
+    static String keyFor(String url) {
+        int apiKeyIndex = url.indexOf(API_KEY_PARAM);
+        String canonical = apiKeyIndex >= 0 ? url.substring(0, apiKeyIndex) : url;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(canonical.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the time from the Retry-After header, either in seconds or as an HTTP date, or 0
+     */
+    private static long getRetryAt(HttpURLConnection connection) {
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return System.currentTimeMillis() + Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return connection.getHeaderFieldDate("Retry-After", 0);
+        }
+    }
+
+    private void download(InputStream in, File target) throws IOException {
+        File temp = File.createTempFile(target.getName(), TEMP_EXTENSION, directory);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            long total = 0;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            RefreshMetrics.getInstance().add(RefreshMetrics.COUNTER_BYTES_DOWNLOADED, total);
+        }
+        finally {
+            out.close();
+            in.close();
+        }
+        commit(temp, target);
+    }
+
+    private static void commit(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to move image to " + target);
+        }
+    }
+
+    /**
+     * Evict the least recently used images until the cache is smaller than its maximum size
+     */
+    private synchronized void trimToSize() {
+        File[] images = directory.listFiles();
+        if (images == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : images) {
+            size += file.length();
+        }
+        if (size <= maxSizeBytes) {
+            return;
+        }
+
+        Arrays.sort(images, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.lastModified() < rhs.lastModified() ? -1 : (lhs.lastModified() == rhs.lastModified() ? 0 : 1);
+            }
+        });
+        for (File file : images) {
+            if (size <= maxSizeBytes) {
+                break;
+            }
+            if (!file.getName().endsWith(IMAGE_EXTENSION)) {
+                continue;
+            }
+            String key = file.getName().substring(0, file.getName().length() - IMAGE_EXTENSION.length());
+            File metaFile = new File(directory, key + META_EXTENSION);
+            size -= file.length() + metaFile.length();
+            file.delete();
+            metaFile.delete();
+            if (BuildConfig.DEBUG) Log.d(TAG, "Evicted " + key);
+        }
+    }
+
+    private static Properties readMeta(File metaFile) {
+        Properties meta = new Properties();
+        if (metaFile.exists()) {
+            try {
+                InputStream in = new FileInputStream(metaFile);
+                try {
+                    meta.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read " + metaFile, e);
+            }
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) {
+        try {
+            OutputStream out = new FileOutputStream(metaFile);
+            try {
+                meta.store(out, null);
+            }
+            finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + metaFile, e);
+        }
+    }
+
+    /**
+     * Writes an image generated locally into the cache
+     */
+    public interface ImageWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,138 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import com.littlefluffytoys.littlefluffylocationlibrary.LocationInfo;
+import com.littlefluffytoys.littlefluffylocationlibrary.LocationLibrary;
+import com.littlefluffytoys.littlefluffylocationlibrary.LocationLibraryConstants;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps the Little Fluffy Location Library, which collects passive fixes from other apps and only occasionally
+ * asks for one itself. How often it does that, and whether a refresh may wake the radios for a fresh fix,
+ * depends on the power budget chosen by the user.
+ */
+public class LocationProvider {
+    private static final String TAG = LocationProvider.class.getSimpleName();
+
+    private static final String BROADCAST_PREFIX = "net.bonysoft.mapsmuzei";
+
+    // Power budgets, indexes of Constants.PREF_LOCATION_POWER
+    public static final int POWER_LOW = 0;
+    public static final int POWER_BALANCED = 1;
+    public static final int POWER_HIGH = 2;
+
+    private static final long[] ALARM_FREQUENCY_MILLIS = {6 * 60 * 60 * 1000L, 60 * 60 * 1000L, 15 * 60 * 1000L};
+    private static final long[] MAX_AGE_MILLIS = {6 * 60 * 60 * 1000L, 60 * 60 * 1000L, 15 * 60 * 1000L};
+    private static final boolean[] USE_FINE_ACCURACY = {false, false, true};
+    private static final boolean[] ALLOW_FRESH_FIX = {false, true, true};
+
+    private static final long FRESH_FIX_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static LocationProvider sInstance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    public static synchronized LocationProvider getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LocationProvider(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LocationProvider(Context context) {
+        this.context = context;
+        this.prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * Initialise the location library with the current power budget. Every fix is broadcast, not only the
+     * periodic ones, so that the track gets all the fixes collected. The library ignores any call after the
+     * first one in the same process
+     */
+    public void initialise() {
+        int budget = getPowerBudget();
+        try {
+            LocationLibrary.initialiseLibrary(context,
+                                              ALARM_FREQUENCY_MILLIS[budget],
+                                              (int) MAX_AGE_MILLIS[budget],
+                                              true,
+                                              BROADCAST_PREFIX);
+            LocationLibrary.useFineAccuracyForRequests(USE_FINE_ACCURACY[budget]);
+        }
+        catch (UnsupportedOperationException e) {
+            Log.e(TAG, "No location providers available", e);
+        }
+    }
+
+    /**
+     * Apply a new power budget to the initialised library. The accuracy changes at once, the frequency of the
+     * updates when the process is started again
+     */
+    public void applyPowerBudget() {
+        LocationLibrary.useFineAccuracyForRequests(USE_FINE_ACCURACY[getPowerBudget()]);
+    }
+
+    public int getPowerBudget() {
+        return prefs.getInt(Constants.PREF_LOCATION_POWER, Constants.PREF_LOCATION_POWER_DEFAULT);
+    }
+
+    /**
+     * @return the last fix collected by the library, without waking any radio
+     */
+    public LocationSnapshot getLastSnapshot() {
+        LocationInfo info = new LocationInfo(context);
+        return new LocationSnapshot(info.lastLat, info.lastLong, info.lastAccuracy, info.lastLocationUpdateTimestamp);
+    }
+
+    /**
+     * Return a fix good enough for a map at the given zoom. The last collected fix is reused whenever possible,
+     * a single fresh fix is requested only if it is too old or inaccurate and the power budget allows it.
+     * To be called from a worker thread, since it may block while waiting for the fresh fix.
+     * @return the best available fix, which may still be stale or invalid
+     */
+    public LocationSnapshot getSnapshot(int zoom) {
+        int budget = getPowerBudget();
+        LocationSnapshot snapshot = getLastSnapshot();
+        if (snapshot.isUsableFor(zoom, MAX_AGE_MILLIS[budget], System.currentTimeMillis())) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Reusing fix " + snapshot);
+            return snapshot;
+        }
+        if (!ALLOW_FRESH_FIX[budget]) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Stale fix " + snapshot + ", fresh fix not allowed");
+            return snapshot;
+        }
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "Stale fix " + snapshot + ", requesting a fresh one");
+        RefreshMetrics.getInstance().increment(RefreshMetrics.COUNTER_FRESH_FIX);
+        final CountDownLatch received = new CountDownLatch(1);
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                received.countDown();
+            }
+        };
+        context.registerReceiver(receiver,
+                                 new IntentFilter(LocationLibraryConstants.getLocationChangedPeriodicBroadcastAction()));
+        try {
+            LocationLibrary.forceLocationUpdate(context);
+            if (!received.await(FRESH_FIX_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "No fresh fix after " + FRESH_FIX_TIMEOUT_MILLIS + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            context.unregisterReceiver(receiver);
+        }
+        return getLastSnapshot();
+    }
+}
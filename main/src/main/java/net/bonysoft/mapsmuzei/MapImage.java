@@ -2,78 +2,123 @@ package net.bonysoft.mapsmuzei;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.location.Address;
-import android.location.Geocoder;
 import android.util.Log;
-import com.littlefluffytoys.littlefluffylocationlibrary.LocationInfo;
 
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
 public class MapImage {
 
     private static final String TAG = MapImage.class.getSimpleName();
 
-    private static final String BASE_IMAGE_URL = "https://maps.googleapis.com/maps/api/staticmap?center=";
-    private static final String BASE_INTENT_URL = "https://www.google.it/maps/@";
-
     private final Context context;
-    private final LocationInfo location;
     private final String token;
     private final int zoom;
     private final MapTheme style;
+    private final ImageSpec spec;
+    private float latitude;
+    private float longitude;
+    private String track;
     private String title = "";
     private String description = "";
 
-    public MapImage(Context context, int zoom, MapTheme style) {
+    /**
+     * Create the map for the current location of the device, or for a famous place if the location is not valid.
+     * Title and description are left empty, see {@link #resolvePlace()}
+     * @param showTrack whether the recent track of the device should be drawn over the map
+     */
+    public MapImage(Context context, LocationSnapshot location, int zoom, MapTheme style, ImageSpec spec,
+                    boolean showTrack) {
         this.context = context;
         this.zoom = zoom;
         this.style = style;
-
-        location = new LocationInfo(context);
-        if (BuildConfig.DEBUG) Log.d(TAG, "currentLocation = " + location.lastLat + "," + location.lastLong);
-        if (!isValidLocation()) {
+        this.spec = spec;
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "currentLocation = " + location);
+        latitude = location.latitude;
+        longitude = location.longitude;
+        if (!location.isValid()) {
+            RefreshMetrics metrics = RefreshMetrics.getInstance();
+            long stageStart = RefreshMetrics.now();
             createFakeLocation();
+            metrics.record(RefreshMetrics.STAGE_FAKE_LOCATION, stageStart);
+            metrics.increment(RefreshMetrics.COUNTER_FAKE_LOCATION);
+        }
+        snapToGrid();
+        if (showTrack && location.isValid()) {
+            String baseUrl = getImageUrl();
+            track = TrackRecorder.getInstance(context).encodeRecentTrack(zoom, StaticMapUrl.getPathBudget(baseUrl));
         }
 
-        createImageTitleAndDescription();
+        token = createToken();
+    }
 
-        token = location.lastLat + "," + location.lastLong;
+    /**
+     * Create the map for the given location. Title and description are left empty, see {@link #resolvePlace()}
+     */
+    public MapImage(Context context, float latitude, float longitude, int zoom, MapTheme style, ImageSpec spec) {
+        this.context = context;
+        this.zoom = zoom;
+        this.style = style;
+        this.spec = spec;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        snapToGrid();
+
+        token = createToken();
+    }
+
+    /**
+     * Move the centre of the map to the centre of its grid cell at the current zoom, so that small
+     * location changes (e.g. GPS jitter) produce exactly the same map
+     */
+    private void snapToGrid() {
+        float[] snapped = MapLocations.snapToGrid(latitude, longitude, zoom, MapLocations.SNAP_PIXELS);
+        latitude = snapped[0];
+        longitude = snapped[1];
     }
 
-    private boolean isValidLocation() {
-        return location.lastLat >= -90f && location.lastLat <= 90f &&
-               location.lastLong >= -180f && location.lastLong <= 180f;
+    /**
+     * The token identifies the rendered map: two maps with the same token look the same
+     */
+    private String createToken() {
+        return MapLocations.buildToken(latitude, longitude, zoom, spec, style, track);
     }
 
     private void createFakeLocation() {
-        Resources res = context.getResources();
-        String[] fakeLocations = res.getStringArray(R.array.fake_locations);
-        Random rng = new Random();
-        String selectedLocation = fakeLocations[rng.nextInt(fakeLocations.length)];
-        String[] coordinates = selectedLocation.split(",");
-        location.lastLat = Float.parseFloat(coordinates[0]);
-        location.lastLong = Float.parseFloat(coordinates[1]);
+        Random random = new Random();
+        float[] fakeLocation = OfflineGeocoder.getInstance(context).pickLandmark(random);
+        if (fakeLocation == null) {
+            Resources res = context.getResources();
+            fakeLocation = MapLocations.pickFakeLocation(res.getStringArray(R.array.fake_locations), random);
+        }
+        latitude = fakeLocation[0];
+        longitude = fakeLocation[1];
     }
 
     /**
-     * Create title and desctiption from the address of the current location
+     * Create title and description from the address of the map centre. It may block on the Geocoder
      */
-    private void createImageTitleAndDescription() {
-        Geocoder geocoder = new Geocoder(context);
-        List<Address> addresses = new ArrayList<Address>();
-        try {
-            addresses = geocoder.getFromLocation(location.lastLat, location.lastLong, 1);
-        } catch (IOException e) {
-            Log.e(TAG, "IO Exception in getFromLocation(). Lat=" + location.lastLat + ", Long=" + location.lastLong, e);
-        }
+    public GeocodeCache.Place resolvePlace() {
+        long stageStart = RefreshMetrics.now();
+        GeocodeCache.Place place = GeocodeCache.getInstance(context).lookup(latitude, longitude, zoom);
+        setPlace(place);
+        RefreshMetrics.getInstance().record(RefreshMetrics.STAGE_GEOCODE, stageStart);
+        return place;
+    }
 
-        if (!addresses.isEmpty()) {
-            Address address = addresses.get(0);
-            title = address.getMaxAddressLineIndex() > 0 ? address.getAddressLine(0) : "";
-            description = address.getLocality();
+    /**
+     * Use the cached address of the map centre, even if expired, without asking the Geocoder
+     * @param fallback the address to use if the map centre has none cached, may be null
+     */
+    public void resolveCachedPlace(GeocodeCache.Place fallback) {
+        GeocodeCache.Place place = GeocodeCache.getInstance(context).peek(latitude, longitude, zoom);
+        setPlace(place != null ? place : fallback);
+    }
+
+    private synchronized void setPlace(GeocodeCache.Place place) {
+        if (place != null) {
+            title = place.title;
+            description = place.description;
         }
     }
 
@@ -81,28 +126,56 @@ public class MapImage {
      * This URL will be used by Muzei to fetch the actual image
      */
     public String getImageUrl() {
-        return BASE_IMAGE_URL + location.lastLat + ',' + location.lastLong + "&zoom=" + zoom +
-               "&size=1024x1024&scale=2&sensor=false" + style.toString() +
-               "&key=" + Config.API_KEY;
+        return StaticMapUrl.buildImageUrl(latitude, longitude, zoom, spec, style, track, Config.API_KEY);
+    }
+
+    /**
+     * @return the URL of the image drawn by the given provider, or null if the provider is tiled
+     */
+    public String getImageUrl(MapProvider provider) {
+        return provider.buildImageUrl(latitude, longitude, zoom, spec, style, track);
     }
 
     /**
      * This URL will be used by Muzei when someone click on the description of the map, opening Google Maps
      */
     public String getIntentUrl() {
-        return BASE_INTENT_URL + location.lastLat + "," + location.lastLong
-               + "," + zoom+"z";
+        return StaticMapUrl.buildIntentUrl(latitude, longitude, zoom);
+    }
+
+    public String getIntentUrl(MapProvider provider) {
+        return provider.buildIntentUrl(latitude, longitude, zoom);
+    }
+
+    public float getLatitude() {
+        return latitude;
+    }
+
+    public float getLongitude() {
+        return longitude;
+    }
+
+    public ImageSpec getSpec() {
+        return spec;
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public MapTheme getStyle() {
+        return style;
     }
 
     public String getToken() {
         return token;
     }
 
-    public String getTitle() {
+    public synchronized String getTitle() {
         return title;
     }
 
-    public String getDescription() {
+    public synchronized String getDescription() {
         return description;
     }
 }
@@ -0,0 +1,138 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read-only provider streaming the cached map images to Muzei, and to the apps the artwork is shared with.
+ * The files are handed over as they are, without copying them. The provider is not exported, since the keys
+ * are derived from the location of the user: each image is readable only by the apps it is granted to
+ */
+public class MapImageProvider extends ContentProvider {
+
+    public static final String AUTHORITY = "net.bonysoft.mapsmuzei.images";
+
+    private static final String MUZEI_PACKAGE = "net.nurik.roman.muzei";
+
+    public static Uri buildUri(String key) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(key).build();
+    }
+
+    /**
+     * @return the uri of the image, readable by Muzei alone
+     */
+    public static Uri buildArtworkUri(Context context, String key) {
+        Uri uri = buildUri(key);
+        context.grantUriPermission(MUZEI_PACKAGE, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        return uri;
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Read only provider: " + uri);
+        }
+        return ParcelFileDescriptor.open(getFile(uri), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * @return the actual type of the image, share targets may not accept a generic one
+     */
+    @Override
+    public String getType(Uri uri) {
+        try {
+            InputStream in = new FileInputStream(getFile(uri));
+            try {
+                int first = in.read();
+                if (first == 0xff && in.read() == 0xd8) {
+                    return "image/jpeg";
+                }
+                if (first == 0x89 && in.read() == 'P') {
+                    return "image/png";
+                }
+            }
+            finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Fall back to the generic type
+        }
+        return "image/*";
+    }
+
+    /**
+     * Only the name and size of the image, as asked by the apps receiving a shared file
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        File file;
+        try {
+            file = getFile(uri);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = "map" + ("image/png".equals(getType(uri)) ? ".png" : ".jpg");
+            }
+            else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = file.length();
+            }
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private File getFile(Uri uri) throws FileNotFoundException {
+        String key = uri.getLastPathSegment();
+        if (!ImageCache.isValidKey(key)) {
+            throw new FileNotFoundException("Invalid image: " + uri);
+        }
+        File file = ImageCache.getInstance(getContext()).getFile(key);
+        if (!file.exists()) {
+            file = ImageCache.getPrefetchInstance(getContext()).getFile(key);
+        }
+        if (!file.exists()) {
+            throw new FileNotFoundException("No longer cached: " + uri);
+        }
+        return file;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,172 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Low resolution preview of the map for the settings being edited. Only the last request is served: a new
+ * request cancels the previous one, and requests are delayed a little so that scrubbing the zoom bar downloads
+ * only the final zoom level. Thumbnails are kept in a small in-memory LRU, keyed by the map token (grid cell,
+ * zoom, theme and inversion).
+ */
+public class MapPreview {
+    private static final String TAG = MapPreview.class.getSimpleName();
+
+    private static final int PREVIEW_SIZE = 256;
+    private static final long DEBOUNCE_MILLIS = 300;
+    private static final int CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final LruCache<String, Bitmap> sThumbnails = new LruCache<String, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    private final Context context;
+    private final ImageView target;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Created on the first preview, so that it does not slow down the first frame of the settings
+    private ScheduledExecutorService executor;
+
+    private ScheduledFuture<?> pending;
+    private volatile HttpURLConnection connection;
+    private volatile String currentToken;
+
+    public MapPreview(Context context, ImageView target) {
+        this.context = context.getApplicationContext();
+        this.target = target;
+    }
+
+    /**
+     * Show the preview for the given settings, cancelling the one being downloaded. To be called on the main thread
+     */
+    public void show(int mapType, int zoom, boolean isInverted) {
+        MapTheme theme = MapThemeRegistry.resolve(context, mapType, isInverted);
+        ImageSpec spec = new ImageSpec(PREVIEW_SIZE, 1, ImageSpec.FORMAT_JPG);
+        float[] location = getPreviewLocation();
+        final MapImage map = new MapImage(context, location[0], location[1], zoom, theme, spec);
+        final String token = map.getToken();
+        currentToken = token;
+
+        cancel();
+        Bitmap cached = sThumbnails.get(token);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor();
+        }
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumbnail = download(map.getImageUrl());
+                if (thumbnail == null || !token.equals(currentToken)) {
+                    return;
+                }
+                sThumbnails.put(token, thumbnail);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (token.equals(currentToken)) {
+                            target.setImageBitmap(thumbnail);
+                        }
+                    }
+                });
+            }
+        }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel the preview being downloaded, if any
+     */
+    public void cancel() {
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+        HttpURLConnection active = connection;
+        if (active != null) {
+            // Closing the connection is the only way to interrupt a blocking read
+            active.disconnect();
+        }
+    }
+
+    public void release() {
+        cancel();
+        currentToken = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the last known location, or the first famous place if there is none, so that the preview does not
+     * jump around
+     */
+    private float[] getPreviewLocation() {
+        LocationSnapshot snapshot = LocationProvider.getInstance(context).getLastSnapshot();
+        if (snapshot.isValid()) {
+            return new float[]{snapshot.latitude, snapshot.longitude};
+        }
+        return MapLocations.parse(context.getResources().getStringArray(R.array.fake_locations)[0]);
+    }
+
+    private Bitmap download(String url) {
+        UpstreamGuard guard = UpstreamGuard.getStaticMapsInstance(context);
+        try {
+            guard.acquire();
+            HttpURLConnection active = (HttpURLConnection) new URL(url).openConnection();
+            connection = active;
+            try {
+                active.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                active.setReadTimeout(READ_TIMEOUT_MILLIS);
+                if (active.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new HttpStatusException(active.getResponseCode(), 0, "Unexpected response for preview");
+                }
+                InputStream in = active.getInputStream();
+                Bitmap bitmap;
+                try {
+                    // Previews are always JPEG, so opaque
+                    bitmap = BitmapDecoder.decode(in, PREVIEW_SIZE, PREVIEW_SIZE, true);
+                }
+                finally {
+                    in.close();
+                }
+                guard.onSuccess();
+                return bitmap;
+            }
+            finally {
+                connection = null;
+                active.disconnect();
+            }
+        } catch (UpstreamUnavailableException e) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Preview not downloaded: " + e.getMessage());
+        } catch (IOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // Cancelled by a newer preview
+                return null;
+            }
+            guard.onFailure(e);
+            Log.w(TAG, "Unable to download the preview", e);
+        }
+        return null;
+    }
+}
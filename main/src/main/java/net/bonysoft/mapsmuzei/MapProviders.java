@@ -0,0 +1,119 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The services able to draw the map, and the {@link ProviderSelector} choosing between them. Providers are
+ * ordered for each refresh, so that a slow or over quota one is skipped, and the next one is used when a
+ * provider fails or times out during the refresh. The estimates of the selector are persisted, so that they
+ * survive the process being killed between refreshes.
+ */
+public class MapProviders {
+
+    /**
+     * Time given to each provider before failing over to the next one
+     */
+    public static final long ATTEMPT_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static MapProviders sInstance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final ProviderSelector selector = new ProviderSelector();
+    private final GoogleStaticMapsProvider google = new GoogleStaticMapsProvider(Config.API_KEY);
+
+    public static synchronized MapProviders getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MapProviders(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MapProviders(Context context) {
+        this.context = context;
+        this.prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        selector.restore(prefs.getString(Constants.STAT_PROVIDER_ESTIMATES, null));
+    }
+
+    /**
+     * @param renderMode one of the Constants.RENDER_MODE_ values
+     * @return all the providers, in the order they should be tried
+     */
+    public MapProvider[] rank(int renderMode, MapTheme style) {
+        List<MapProvider> providers = new ArrayList<MapProvider>(3);
+        MapProvider tiles = new TileServerProvider(TileCompositor.getInstance(context).getUrlTemplate());
+        MapProvider osmStatic = new OsmStaticMapProvider(prefs.getString(Constants.PREF_OSM_STATIC_URL,
+                                                                         OsmStaticMapProvider.DEFAULT_BASE_URL));
+        providers.add(google);
+        providers.add(tiles);
+        providers.add(osmStatic);
+
+        MapProvider preferred;
+        switch (renderMode) {
+            case Constants.RENDER_MODE_STATIC_MAPS:
+                preferred = google;
+                break;
+            case Constants.RENDER_MODE_TILES:
+                preferred = tiles;
+                break;
+            case Constants.RENDER_MODE_OSM_STATIC:
+                preferred = osmStatic;
+                break;
+            default:
+                preferred = null;
+        }
+        return selector.rank(providers, style, preferred, System.currentTimeMillis());
+    }
+
+    /**
+     * Download or composite the map with the given provider. It may take long, and it stops when interrupted
+     * @return the key of the image in the {@link ImageCache}
+     */
+    public String fetch(MapProvider provider, MapImage map) throws IOException {
+        if (provider instanceof TileServerProvider) {
+            return TileCompositor.getInstance(context).render((TileServerProvider) provider, map.getLatitude(),
+                                                              map.getLongitude(), map.getZoom(), map.getSpec());
+        }
+        UpstreamGuard guard = provider == google ? UpstreamGuard.getStaticMapsInstance(context)
+                                                 : UpstreamGuard.getOsmStaticInstance(context);
+        long stageStart = RefreshMetrics.now();
+        String url = map.getImageUrl(provider);
+        RefreshMetrics.getInstance().record(RefreshMetrics.STAGE_URL, stageStart);
+        return ImageCache.getInstance(context).fetch(url, guard);
+    }
+
+    /**
+     * @return true if the map drawn by the given provider is already in the {@link ImageCache}
+     */
+    public boolean isCached(MapProvider provider, MapImage map) {
+        String key = provider instanceof TileServerProvider
+                     ? TileCompositor.getKey((TileServerProvider) provider, map.getLatitude(), map.getLongitude(),
+                                             map.getZoom(), map.getSpec())
+                     : ImageCache.keyFor(map.getImageUrl(provider));
+        return ImageCache.getInstance(context).contains(key);
+    }
+
+    public void onSuccess(MapProvider provider, long latencyMillis) {
+        selector.onSuccess(provider, latencyMillis, System.currentTimeMillis());
+        saveEstimates();
+    }
+
+    public void onFailure(MapProvider provider, long elapsedMillis) {
+        selector.onFailure(provider, elapsedMillis, System.currentTimeMillis());
+        saveEstimates();
+    }
+
+    public String dump() {
+        return selector.dump(System.currentTimeMillis());
+    }
+
+    private void saveEstimates() {
+        prefs.edit().putString(Constants.STAT_PROVIDER_ESTIMATES, selector.save()).apply();
+    }
+}
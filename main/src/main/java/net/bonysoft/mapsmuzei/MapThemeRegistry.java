@@ -0,0 +1,163 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Immutable registry of all the available map themes, indexed both by id (the position of the theme in the
+ * all-themes list) and by name. The themes XML file is parsed only once per process.
+ * Themes imported by the user come after the bundled ones, and are read lazily from the {@link ThemeCatalog}.
+ */
+public class MapThemeRegistry {
+    private static final String TAG = MapThemeRegistry.class.getSimpleName();
+
+    private static final String CATALOG_FILE_NAME = "themes.cat";
+
+    private static MapThemeRegistry sInstance;
+
+    private final MapTheme[] themesById;
+    private final Map<String, MapTheme> themesByName;
+    private final ThemeCatalog catalog;
+
+    public static synchronized MapThemeRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = load(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Drop the loaded registry, e.g. after a new catalog has been imported
+     */
+    public static synchronized void reload() {
+        sInstance = null;
+    }
+
+    public static File getCatalogFile(Context context) {
+        return new File(context.getFilesDir(), CATALOG_FILE_NAME);
+    }
+
+    MapThemeRegistry(String[] themesNames, List<MapTheme> customThemes, ThemeCatalog catalog) {
+        this.catalog = catalog;
+        Map<String, MapTheme> byName = new HashMap<String, MapTheme>();
+        for (MapTheme theme : customThemes) {
+            byName.put(theme.getName(), theme);
+        }
+
+        themesById = new MapTheme[themesNames.length];
+        for (int i = 0; i < themesNames.length; i++) {
+            themesById[i] = MapTheme.isStandardTheme(i) ? MapTheme.getStandardTheme(i, false) : byName.get(themesNames[i]);
+        }
+        themesByName = Collections.unmodifiableMap(byName);
+    }
+
+    /**
+     * @param themeId the position of the theme in the all-themes list
+     * @return the theme, or null if there is no theme with the given id
+     */
+    public MapTheme getById(int themeId) {
+        if (themeId < 0) {
+            return null;
+        }
+        if (themeId >= themesById.length) {
+            return catalog != null ? catalog.getById(themeId - themesById.length) : null;
+        }
+        return themesById[themeId];
+    }
+
+    /**
+     * @param themeId the position of the theme in the all-themes list
+     * @return the theme, or the default theme (roadmap) if there is no theme with the given id
+     */
+    public MapTheme getTheme(int themeId) {
+        MapTheme theme = getById(themeId);
+        return theme != null ? theme : MapTheme.getDefault();
+    }
+
+    /**
+     * @param mapType the map type chosen in the settings
+     * @param isInverted whether the lightness of a standard theme should be inverted
+     * @return the theme to use, or the default theme if there is no theme with the given id. The themes XML file
+     * is parsed only if a custom theme is needed
+     */
+    public static MapTheme resolve(Context context, int mapType, boolean isInverted) {
+        if (MapTheme.isStandardTheme(mapType)) {
+            return MapTheme.getStandardTheme(mapType, isInverted);
+        }
+        return getInstance(context).getTheme(mapType);
+    }
+
+    /**
+     * @return the custom theme with the given name, or null if it does not exist
+     */
+    public MapTheme getByName(String themeName) {
+        MapTheme theme = themesByName.get(themeName);
+        if (theme == null && catalog != null) {
+            theme = catalog.getByName(themeName);
+        }
+        return theme;
+    }
+
+    /**
+     * @return the name of the imported theme with the given id, or null if it is not an imported theme
+     */
+    public String getImportedName(int themeId) {
+        return catalog != null ? catalog.getName(themeId - themesById.length) : null;
+    }
+
+    /**
+     * @return a random imported theme, or null if no catalog has been imported
+     */
+    public MapTheme getRandomImported(Random random) {
+        return catalog != null ? catalog.getRandom(random) : null;
+    }
+
+    /**
+     * @return the number of themes, including the imported ones
+     */
+    public int size() {
+        return themesById.length + (catalog != null ? catalog.size() : 0);
+    }
+
+    /**
+     * @return the number of the standard and bundled themes
+     */
+    public int getBundledSize() {
+        return themesById.length;
+    }
+
+    private static MapThemeRegistry load(Context context) {
+        String[] themesNames = context.getResources().getStringArray(R.array.map_types_titles);
+        List<MapTheme> customThemes = Collections.emptyList();
+        XmlResourceParser xrp = context.getResources().getXml(R.xml.map_themes);
+        try {
+            customThemes = MapThemeParser.readThemes(xrp);
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Unable to load themes from XML resources", e);
+        }
+        finally {
+            xrp.close();
+        }
+        ThemeCatalog catalog = null;
+        File catalogFile = getCatalogFile(context);
+        if (catalogFile.exists()) {
+            try {
+                catalog = ThemeCatalog.open(catalogFile);
+            }
+            catch (IOException e) {
+                Log.e(TAG, "Unable to open the imported themes", e);
+            }
+        }
+        return new MapThemeRegistry(themesNames, customThemes, catalog);
+    }
+}
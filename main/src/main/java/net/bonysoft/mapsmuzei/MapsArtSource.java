@@ -29,12 +29,28 @@ import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.RemoteMuzeiArtSource;
 import com.google.android.apps.muzei.api.UserCommand;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
 public class MapsArtSource extends RemoteMuzeiArtSource {
     private static final String TAG = MapsArtSource.class.getSimpleName();
     private static final String SOURCE_NAME = "MapsArtSource";
 
     private static final int COMMAND_SHARE_ARTWORK = 1337;
     public static final String ACTION_SETTINGS_MODIFIED = "settings_modified_action";
+    public static final String ACTION_REFRESH_WINDOW = "refresh_window_action";
+    public static final String ACTION_MOVED = "moved_action";
+    public static final String EXTRA_REFRESH_AT = "refresh_at";
+
+    /**
+     * Wait a bit after the settings are modified, so that several quick changes cause a single refresh
+     */
+    private static final long SETTINGS_DEBOUNCE_MILLIS = 3000;
 
     public MapsArtSource() {
         super(SOURCE_NAME);
@@ -68,7 +84,16 @@ public class MapsArtSource extends RemoteMuzeiArtSource {
             String description = currentArtwork.getByline().trim();
 
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("text/plain");
+            Uri imageUri = currentArtwork.getImageUri();
+            if (imageUri != null && MapImageProvider.AUTHORITY.equals(imageUri.getAuthority())) {
+                // The cached image is streamed by our provider, no need to download or copy it
+                shareIntent.setType(getContentResolver().getType(imageUri));
+                shareIntent.putExtra(Intent.EXTRA_STREAM, imageUri);
+                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
+            else {
+                shareIntent.setType("text/plain");
+            }
             shareIntent.putExtra(Intent.EXTRA_TEXT, "My Android wallpaper today is the map '"
                                                     + currentArtwork.getTitle().trim()
                                                     + "' on " + description
@@ -93,57 +118,305 @@ public class MapsArtSource extends RemoteMuzeiArtSource {
 
         String action = intent.getAction();
         if (ACTION_SETTINGS_MODIFIED.equals(action)) {
+            // Scheduling replaces any update still pending, so the last modification wins
+            LocationProvider.getInstance(this).applyPowerBudget();
+            scheduleUpdate(System.currentTimeMillis() + SETTINGS_DEBOUNCE_MILLIS);
+            return;
+        }
+        if (ACTION_REFRESH_WINDOW.equals(action)) {
             scheduleUpdate(System.currentTimeMillis() + 1000);
             return;
         }
+        if (ACTION_MOVED.equals(action)) {
+            // The stationary backoff no longer applies
+            scheduleUpdate(Math.max(System.currentTimeMillis() + 1000, intent.getLongExtra(EXTRA_REFRESH_AT, 0)));
+            return;
+        }
 
         super.onHandleIntent(intent);
     }
 
     @Override
     protected void onTryUpdate(int reason) throws RetryException {
+        long start = RefreshMetrics.now();
+        RefreshMetrics.getInstance().startHeapTracking();
+        try {
+            refresh();
+        }
+        finally {
+            RefreshMetrics.getInstance().record(RefreshMetrics.STAGE_TOTAL, start);
+            long peakHeap = RefreshMetrics.getInstance().stopHeapTracking();
+            if (BuildConfig.DEBUG) Log.d(TAG, "Peak heap during refresh: " + RefreshMetrics.formatMegabytes(peakHeap));
+            try {
+                RefreshMetrics.getInstance().export(this);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to export refresh metrics", e);
+            }
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        RefreshMetrics.getInstance().dump(writer);
+        writer.println(MapProviders.getInstance(this).dump());
+        StartupMetrics.dump(writer);
+    }
+
+    private void refresh() {
+        RefreshMetrics metrics = RefreshMetrics.getInstance();
+        long stageStart = RefreshMetrics.now();
+        int generation = RefreshGeneration.current();
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         // Check if we should cancel the update due to WIFI connection and preference
-        if (prefs.getBoolean(Constants.PREF_WIFI_ONLY, Constants.PREF_WIFI_ONLY_DEFAULT) && !Utils.isWiFiConnected(this)) {
-            if (BuildConfig.DEBUG) Log.d(TAG, "Refresh skipped: no WiFi");
-            scheduleNextUpdate(prefs);
+        boolean isWiFiConnected = Utils.isWiFiConnected(this);
+        PrefetchQueue prefetchQueue = new PrefetchQueue(this, prefs);
+        boolean wifiOnly = prefs.getBoolean(Constants.PREF_WIFI_ONLY, Constants.PREF_WIFI_ONLY_DEFAULT);
+        int zoom = prefs.getInt(Constants.PREF_ZOOM, Constants.PREF_ZOOM_DEFAULT);
+        final int mapTheme = prefs.getInt(Constants.PREF_MAP_TYPE, Constants.PREF_MAP_TYPE_DEFAULT);
+        final boolean isInverted = prefs.getBoolean(Constants.PREF_INVERTED, Constants.PREF_INVERTED_DEFAULT);
+        int renderMode = prefs.getInt(Constants.PREF_RENDER_MODE, Constants.PREF_RENDER_MODE_DEFAULT);
+        boolean dataSaver = prefs.getBoolean(Constants.PREF_DATA_SAVER, Constants.PREF_DATA_SAVER_DEFAULT);
+        // Only drawn by the providers which support overlays
+        boolean showTrack = prefs.getBoolean(Constants.PREF_SHOW_TRACK, Constants.PREF_SHOW_TRACK_DEFAULT);
+        int dimLevel = prefs.getInt(Constants.PREF_DIM, Constants.PREF_DIM_DEFAULT);
+        int effectPreset = prefs.getInt(Constants.PREF_EFFECT, Constants.PREF_EFFECT_DEFAULT);
+        metrics.record(RefreshMetrics.STAGE_PREFS, stageStart);
+
+        if (wifiOnly && !isWiFiConnected) {
+            metrics.increment(RefreshMetrics.COUNTER_SKIPPED_NO_WIFI);
+            if (prefetchQueue.isEnabled()) {
+                int pixels = Utils.getImageSpec(this, dataSaver, MapTheme.MODE_MAP).getPixels();
+                publishFromPrefetchQueue(prefetchQueue, ImageEffects.fromPreset(dimLevel, effectPreset, pixels));
+            }
+            else {
+                if (BuildConfig.DEBUG) Log.d(TAG, "Refresh skipped: no WiFi");
+            }
+            scheduleNextUpdate(new RefreshScheduler(this, prefs).getNoWiFiDelay());
             return;
         }
 
-        MapTheme style;
-        int zoom = prefs.getInt(Constants.PREF_ZOOM, Constants.PREF_ZOOM_DEFAULT);
-        int mapTheme = prefs.getInt(Constants.PREF_MAP_TYPE, Constants.PREF_MAP_TYPE_DEFAULT);
-        if (MapTheme.isStandardTheme(mapTheme)) {
-            style = new MapTheme();
-            style.setMapMode(mapTheme);
-            boolean isInverted = prefs.getBoolean(Constants.PREF_INVERTED, Constants.PREF_INVERTED_DEFAULT);
-            style.setInverted(isInverted);
+        // The theme may need to be parsed from XML, resolve it while waiting for the location
+        RefreshPipeline pipeline = RefreshPipeline.getInstance();
+        Future<MapTheme> themeStage = pipeline.submit(new Callable<MapTheme>() {
+            @Override
+            public MapTheme call() {
+                long stageStart = RefreshMetrics.now();
+                MapTheme style = MapThemeRegistry.resolve(MapsArtSource.this, mapTheme, isInverted);
+                RefreshMetrics.getInstance().record(RefreshMetrics.STAGE_THEME, stageStart);
+                return style;
+            }
+        });
+
+        stageStart = RefreshMetrics.now();
+        LocationSnapshot location = LocationProvider.getInstance(this).getSnapshot(zoom);
+        metrics.record(RefreshMetrics.STAGE_LOCATION, stageStart);
+
+        MapTheme style = RefreshPipeline.await(themeStage, RefreshPipeline.THEME_TIMEOUT_MILLIS,
+                                               MapTheme.getDefault(), "theme");
+        final ImageSpec spec = Utils.getImageSpec(this, dataSaver, style.getMapMode());
+        PlacePredictor placePredictor = PlacePredictor.getInstance(this);
+        final MapImage map = new MapImage(this, location, zoom, style, spec, showTrack);
+        final ImageEffects effects = ImageEffects.fromPreset(dimLevel, effectPreset, spec.getPixels());
+        String effectsToken = effects.isIdentity() ? "" : "," + effects;
+        final MapProviders mapProviders = MapProviders.getInstance(this);
+        MapProvider[] providers = mapProviders.rank(renderMode, style);
+        placePredictor.onRefresh(location, map, providers[0]);
+
+        // The same map drawn by another provider is not worth a new download
+        Artwork currentArtwork = getCurrentArtwork();
+        if (currentArtwork != null && isSameMap(currentArtwork.getToken(), map.getToken(), providers, effectsToken)) {
+            metrics.increment(RefreshMetrics.COUNTER_SKIPPED_SAME_MAP);
+            int skipped = prefs.getInt(Constants.STAT_SKIPPED_PUBLISHES, 0) + 1;
+            prefs.edit().putInt(Constants.STAT_SKIPPED_PUBLISHES, skipped).apply();
+            if (BuildConfig.DEBUG) Log.d(TAG, "Refresh skipped: same map as current artwork (" + skipped + " skipped so far)");
+            scheduleNextUpdate(new RefreshScheduler(this, prefs).getNextUpdateDelay(map.getLatitude(), map.getLongitude()));
+            return;
         }
-        else {
-            style = MapTheme.loadCustomTheme(this, mapTheme);
+
+        // Geocoding and image download are independent, and a slow Geocoder must not delay the publish
+        Future<GeocodeCache.Place> geocodeStage = pipeline.submit(new Callable<GeocodeCache.Place>() {
+            @Override
+            public GeocodeCache.Place call() {
+                return map.resolvePlace();
+            }
+        });
+        String imageKey = null;
+        MapProvider provider = null;
+        IOException failure = null;
+        long deadline = System.currentTimeMillis() + RefreshPipeline.IMAGE_TIMEOUT_MILLIS;
+        for (final MapProvider candidate : providers) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            Future<String> imageStage = pipeline.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    long stageStart = RefreshMetrics.now();
+                    if (BuildConfig.DEBUG) Log.d(TAG, "Fetching map from " + candidate.getName());
+                    String key = mapProviders.fetch(candidate, map);
+                    RefreshMetrics.getInstance().sampleHeap();
+                    RefreshMetrics.getInstance().record(RefreshMetrics.STAGE_IMAGE, stageStart);
+                    // All the providers store their images in the main cache
+                    File source = ImageCache.getInstance(MapsArtSource.this).getFile(key);
+                    return EffectRenderer.getInstance(MapsArtSource.this).apply(source, key, effects);
+                }
+            });
+            long attemptStart = System.currentTimeMillis();
+            try {
+                imageKey = RefreshPipeline.awaitOrThrow(imageStage,
+                                                        Math.min(remaining, MapProviders.ATTEMPT_TIMEOUT_MILLIS),
+                                                        "image from " + candidate.getName(), generation);
+                mapProviders.onSuccess(candidate, System.currentTimeMillis() - attemptStart);
+                provider = candidate;
+                break;
+            } catch (CancellationException e) {
+                // The update scheduled when the settings were modified will publish the right map
+                if (BuildConfig.DEBUG) Log.d(TAG, "Refresh abandoned: " + e.getMessage());
+                metrics.increment(RefreshMetrics.COUNTER_STALE_ABANDONED);
+                geocodeStage.cancel(true);
+                return;
+            } catch (UpstreamUnavailableException e) {
+                // Not a failure of the provider, its quota or breaker says we should not call it now
+                Log.w(TAG, "Skipping " + candidate.getName() + ": " + e.getMessage());
+                failure = e;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to fetch map from " + candidate.getName() + ", failing over", e);
+                mapProviders.onFailure(candidate, System.currentTimeMillis() - attemptStart);
+                failure = e;
+            }
+        }
+        if (imageKey == null) {
+            Log.e(TAG, "Unable to fetch map image", failure);
+            metrics.increment(RefreshMetrics.COUNTER_IMAGE_FAILURE);
+            geocodeStage.cancel(true);
+            // Retry with our own backoff and jitter instead of RetryException, so that devices don't retry together
+            scheduleNextUpdate(new RefreshScheduler(this, prefs).getRetryDelay(
+                failure != null ? failure : new IOException("Image stage timed out")));
+            return;
+        }
+        metrics.add(RefreshMetrics.COUNTER_BITMAP_BYTES, spec.getBitmapBytes());
+
+        // Open sea or desert at other coordinates is not worth a new artwork
+        String token = map.getToken() + "," + provider.getName() + effectsToken;
+        ArtworkHashes artworkHashes = ArtworkHashes.getInstance(this);
+        ArtworkHashes.Fingerprint fingerprint = null;
+        try {
+            fingerprint = artworkHashes.hash(ImageCache.getInstance(this).getFile(imageKey));
+            if (currentArtwork != null && artworkHashes.isLookalike(currentArtwork.getToken(), token, fingerprint)) {
+                metrics.increment(RefreshMetrics.COUNTER_SKIPPED_LOOKALIKE);
+                if (BuildConfig.DEBUG) Log.d(TAG, "Refresh skipped: the map looks like the current artwork");
+                geocodeStage.cancel(true);
+                scheduleNextUpdate(new RefreshScheduler(this, prefs).getNextUpdateDelay(map.getLatitude(), map.getLongitude()));
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to hash the map, publishing it anyway", e);
         }
 
-        MapImage map = new MapImage(this, zoom, style);
+        if (RefreshPipeline.await(geocodeStage, RefreshPipeline.GEOCODE_TIMEOUT_MILLIS, null, "geocode") == null) {
+            metrics.increment(RefreshMetrics.COUNTER_GEOCODE_TIMEOUT);
+            // At a frequent place, the address warmed for it is close enough
+            map.resolveCachedPlace(placePredictor.peekPlace(location, zoom));
+        }
+        if (!RefreshGeneration.isCurrent(generation)) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Refresh abandoned: settings modified before publishing");
+            metrics.increment(RefreshMetrics.COUNTER_STALE_ABANDONED);
+            return;
+        }
+        String byline = map.getDescription();
+        String attribution = provider.getAttribution();
+        if (attribution != null) {
+            byline = byline.isEmpty() ? attribution : byline + " - " + attribution;
+        }
 
-        if (BuildConfig.DEBUG) Log.d(TAG, "Publishing map: " + map.getTitle() + " URL:" + map.getImageUrl());
+        stageStart = RefreshMetrics.now();
+        if (BuildConfig.DEBUG) Log.d(TAG, "Publishing map: " + map.getTitle() + " from " + provider.getName());
         publishArtwork(new Artwork.Builder()
                            .title(map.getTitle())
-                           .byline(map.getDescription())
-                           .imageUri(Uri.parse(map.getImageUrl()))
-                           .token(map.getToken())
+                           .byline(byline)
+                           .imageUri(MapImageProvider.buildArtworkUri(this, imageKey))
+                           .token(token)
                            .viewIntent(new Intent(Intent.ACTION_VIEW,
-                                                  Uri.parse(map.getIntentUrl())))
+                                                  Uri.parse(map.getIntentUrl(provider))))
                            .build());
+        metrics.record(RefreshMetrics.STAGE_PUBLISH, stageStart);
+        metrics.increment(RefreshMetrics.COUNTER_SUCCESS);
+        if (fingerprint != null) {
+            artworkHashes.record(token, fingerprint);
+        }
 
-        scheduleNextUpdate(prefs);
+        stageStart = RefreshMetrics.now();
+        scheduleNextUpdate(new RefreshScheduler(this, prefs).getNextUpdateDelay(map.getLatitude(), map.getLongitude()));
+        metrics.record(RefreshMetrics.STAGE_SCHEDULE, stageStart);
+
+        prefetchQueue.recordPlace(map.getLatitude(), map.getLongitude());
+        if (prefetchQueue.isEnabled() && isWiFiConnected) {
+            // Several downloads, they must not hold the refresh thread
+            PrefetchService.fillQueue(this, map);
+        }
+        // Warming the next places costs a few downloads, only worth it when they are cheap
+        if (isWiFiConnected || (Utils.isCharging(this) && !wifiOnly && !dataSaver)) {
+            PrefetchService.warmPlaces(this, map);
+        }
+    }
+
+    /**
+     * Show the next map downloaded in advance while on WiFi, if any
+     */
+    private void publishFromPrefetchQueue(PrefetchQueue prefetchQueue, ImageEffects effects) {
+        // The queue knows the tokens of the maps alone, prefetched maps always come from Google
+        String suffix = "," + GoogleStaticMapsProvider.NAME + (effects.isIdentity() ? "" : "," + effects);
+        Artwork currentArtwork = getCurrentArtwork();
+        String currentToken = currentArtwork != null ? currentArtwork.getToken() : null;
+        if (currentToken != null && currentToken.endsWith(suffix)) {
+            currentToken = currentToken.substring(0, currentToken.length() - suffix.length());
+        }
+        PrefetchQueue.Entry entry = prefetchQueue.next(currentToken);
+        if (entry == null) {
+            if (BuildConfig.DEBUG) Log.d(TAG, "Refresh skipped: no WiFi and no prefetched maps");
+            return;
+        }
+
+        String imageKey = entry.imageKey;
+        String token = entry.token + "," + GoogleStaticMapsProvider.NAME;
+        if (!effects.isIdentity()) {
+            try {
+                File source = ImageCache.getPrefetchInstance(this).getFile(entry.imageKey);
+                imageKey = EffectRenderer.getInstance(this).apply(source, entry.imageKey, effects);
+                token += "," + effects;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to apply effects to the prefetched map", e);
+            }
+        }
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "Publishing prefetched map: " + entry.title);
+        publishArtwork(new Artwork.Builder()
+                           .title(entry.title)
+                           .byline(entry.description)
+                           .imageUri(MapImageProvider.buildArtworkUri(this, imageKey))
+                           .token(token)
+                           .viewIntent(new Intent(Intent.ACTION_VIEW,
+                                                  Uri.parse(entry.intentUrl)))
+                           .build());
+    }
+
+    /**
+     * @return true if the artwork token is the one of the given map, drawn by any of the providers
+     */
+    private static boolean isSameMap(String artworkToken, String mapToken, MapProvider[] providers, String effectsToken) {
+        for (MapProvider provider : providers) {
+            if ((mapToken + "," + provider.getName() + effectsToken).equals(artworkToken)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private void scheduleNextUpdate(SharedPreferences prefs) {
-        int updateTimeIndex = prefs.getInt(Constants.PREF_UPDATE_INTERVAL, Constants.PREF_UPDATE_INTERVAL_DEFAULT);
-        int updateMinutes = getResources().getIntArray(R.array.update_frequency_values)[updateTimeIndex];
-        if (BuildConfig.DEBUG) Log.d(TAG, "Scheduling update in " + updateMinutes + " minutes");
-        scheduleUpdate(System.currentTimeMillis() + updateMinutes * 1000 * 60);
+    private void scheduleNextUpdate(long delayMillis) {
+        if (BuildConfig.DEBUG) Log.d(TAG, "Scheduling update in " + delayMillis / 60000 + " minutes");
+        scheduleUpdate(System.currentTimeMillis() + delayMillis);
     }
 
 }
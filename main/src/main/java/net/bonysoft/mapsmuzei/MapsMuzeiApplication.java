@@ -1,22 +1,39 @@
 package net.bonysoft.mapsmuzei;
 
 import android.app.Application;
-import android.util.Log;
-import com.littlefluffytoys.littlefluffylocationlibrary.LocationLibrary;
 
 /**
  * The base Application class. Needed to initialize the location library
  * Created by Daniele Bonaldo on 2/25/14.
  */
 public class MapsMuzeiApplication extends Application {
+
+    static {
+        StartupMetrics.onProcessStart();
+    }
+
     @Override
     public void onCreate() {
+        long start = StartupMetrics.now();
         super.onCreate();
-        try {
-            LocationLibrary.initialiseLibrary(getBaseContext(), "net.bonysoft.mapsmuzei");
-        }
-        catch (UnsupportedOperationException e) {
-            Log.e(MapsMuzeiApplication.class.getSimpleName(), "No location providers available", e);
+        // The receivers and the service of the library read their settings from static fields, which are lost
+        // with the process, so it must be configured in every process before any of them runs. Everything
+        // else, including the location requests, is done on the first refresh
+        LocationProvider.getInstance(this).initialise();
+        StartupMetrics.onApplicationCreated(start);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            BitmapPool.getInstance().clear();
         }
     }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapPool.getInstance().clear();
+    }
 }
@@ -0,0 +1,126 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Random;
+
+/**
+ * Reverse geocoding fallback used when the Geocoder is not available, answering with the nearest place of the
+ * bundled dataset (res/raw/places.csv). Raw resources are compressed in the APK and can't be mapped, so the
+ * dataset is compiled into a {@link PlaceIndex} in the private files directory the first time it is needed
+ * after each install or update.
+ */
+public class OfflineGeocoder {
+    private static final String TAG = OfflineGeocoder.class.getSimpleName();
+
+    private static final String INDEX_FILE_NAME = "places.idx";
+    private static final String COMMENT = "#";
+    private static final String SEPARATOR = ";";
+    private static final String KIND_LANDMARK = "landmark";
+
+    /**
+     * Places farther than this are not considered a description of the location
+     */
+    private static final double MAX_DISTANCE_METERS = 50 * 1000;
+
+    private static OfflineGeocoder sInstance;
+
+    private final Context context;
+    private PlaceIndex index;
+    private boolean unavailable;
+
+    public static synchronized OfflineGeocoder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new OfflineGeocoder(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private OfflineGeocoder(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return the place nearest to the given location, or null if there is none close enough
+     */
+    public GeocodeCache.Place lookup(float latitude, float longitude, long expiresAt) {
+        PlaceIndex places = getIndex();
+        if (places == null) {
+            return null;
+        }
+        int id = places.findNearest(latitude, longitude);
+        if (id < 0 || places.getDistanceMeters(id, latitude, longitude) > MAX_DISTANCE_METERS) {
+            return null;
+        }
+        return new GeocodeCache.Place(places.getName(id), places.getRegion(id), expiresAt);
+    }
+
+    /**
+     * @return the location of a random landmark, or null if the dataset is not available
+     */
+    public float[] pickLandmark(Random random) {
+        PlaceIndex places = getIndex();
+        int id = places != null ? places.getRandomLandmark(random) : -1;
+        return id >= 0 ? new float[]{places.getLatitude(id), places.getLongitude(id)} : null;
+    }
+
+    private synchronized PlaceIndex getIndex() {
+        if (index == null && !unavailable) {
+            File file = new File(context.getFilesDir(), INDEX_FILE_NAME);
+            try {
+                if (!file.exists() || file.lastModified() < getLastUpdateTime()) {
+                    compile(file);
+                }
+                index = PlaceIndex.open(file);
+            } catch (IOException e) {
+                // Don't try again on every lookup
+                Log.e(TAG, "Unable to load the places dataset", e);
+                unavailable = true;
+            }
+        }
+        return index;
+    }
+
+    private void compile(File file) throws IOException {
+        PlaceIndexWriter writer = new PlaceIndexWriter();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(context.getResources().openRawResource(R.raw.places),
+                                                                         "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.startsWith(COMMENT)) {
+                    continue;
+                }
+                String[] fields = line.split(SEPARATOR, 5);
+                if (fields.length != 5) {
+                    throw new IOException("Malformed place: " + line);
+                }
+                try {
+                    writer.add(Float.parseFloat(fields[1]), Float.parseFloat(fields[2]), fields[3], fields[4],
+                               KIND_LANDMARK.equals(fields[0]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed place: " + line, e);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        writer.finish(file);
+        if (BuildConfig.DEBUG) Log.d(TAG, "Compiled " + writer.getCount() + " places");
+    }
+
+    private long getLastUpdateTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
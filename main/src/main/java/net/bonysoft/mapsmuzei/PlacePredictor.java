@@ -0,0 +1,174 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+
+/**
+ * Learns the {@link FrequentPlaces} of the device from the refreshes, and warms the geocode and image caches for
+ * the places it is likely to go next, so that the map is ready when it gets there. Maps stay centred on the device,
+ * the address warmed for a place is found by the place containing the device, see {@link #peekPlace}. The places
+ * are persisted to a small binary file after each refresh.
+ */
+public class PlacePredictor {
+    private static final String TAG = PlacePredictor.class.getSimpleName();
+
+    private static final String FILE_NAME = "frequent_places.bin";
+
+    /**
+     * How far ahead the next places are predicted, a bit more than the longest refresh interval
+     */
+    private static final int HORIZON_HOURS = 4;
+    private static final int PREDICTED_PLACES = 2;
+
+    private static PlacePredictor sInstance;
+
+    private final Context context;
+    private final File file;
+    private final FrequentPlaces places = new FrequentPlaces();
+    private final int[] predicted = new int[PREDICTED_PLACES];
+    private int currentPlace = -1;
+
+    public static synchronized PlacePredictor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PlacePredictor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PlacePredictor(Context context) {
+        this.context = context;
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    /**
+     * @return the cached address of the frequent place containing the location, the one warmed before getting
+     * there, or null. The Geocoder is never used
+     */
+    public GeocodeCache.Place peekPlace(LocationSnapshot location, int zoom) {
+        float latitude;
+        float longitude;
+        synchronized (this) {
+            int place = location.isValid() ? places.find(location.latitude, location.longitude) : -1;
+            if (place < 0) {
+                return null;
+            }
+            latitude = places.getLatitude(place);
+            longitude = places.getLongitude(place);
+        }
+        return GeocodeCache.getInstance(context).peek(latitude, longitude, zoom);
+    }
+
+    /**
+     * Learn the location of a refresh. When the device has arrived at one of its frequent places, record whether
+     * the caches were ready for it
+     * @param provider the provider which will be asked first for the map
+     */
+    public synchronized void onRefresh(LocationSnapshot location, MapImage map, MapProvider provider) {
+        if (!location.isValid()) {
+            return;
+        }
+        int place = places.find(location.latitude, location.longitude);
+        if (place >= 0 && place != currentPlace) {
+            RefreshMetrics metrics = RefreshMetrics.getInstance();
+            metrics.increment(RefreshMetrics.COUNTER_ARRIVALS);
+            GeocodeCache geocodeCache = GeocodeCache.getInstance(context);
+            if (geocodeCache.peek(map.getLatitude(), map.getLongitude(), map.getZoom()) != null
+                || geocodeCache.peek(places.getLatitude(place), places.getLongitude(place), map.getZoom()) != null) {
+                metrics.increment(RefreshMetrics.COUNTER_ARRIVAL_GEOCODE_HITS);
+            }
+            if (MapProviders.getInstance(context).isCached(provider, map)) {
+                metrics.increment(RefreshMetrics.COUNTER_ARRIVAL_IMAGE_HITS);
+            }
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(location.timestamp);
+        currentPlace = places.record(location.latitude, location.longitude, location.timestamp,
+                                     calendar.get(Calendar.HOUR_OF_DAY));
+        save();
+    }
+
+    /**
+     * Geocode and download, with the settings of the current map, the places the device is likely to go next.
+     * It may take long, to be called only while on WiFi or charging, and never from a refresh, see
+     * {@link PrefetchService}
+     * @param current the map just published
+     * @param providers the providers, in the order they should be tried
+     */
+    public void warm(MapImage current, MapProvider[] providers) {
+        int count;
+        float[] locations;
+        synchronized (this) {
+            Calendar calendar = Calendar.getInstance();
+            count = places.predict(currentPlace, calendar.get(Calendar.HOUR_OF_DAY), HORIZON_HOURS,
+                                   calendar.getTimeInMillis(), predicted);
+            locations = new float[count * 2];
+            for (int i = 0; i < count; i++) {
+                locations[i * 2] = places.getLatitude(predicted[i]);
+                locations[i * 2 + 1] = places.getLongitude(predicted[i]);
+            }
+        }
+        MapProviders mapProviders = MapProviders.getInstance(context);
+        for (int i = 0; i < count; i++) {
+            MapImage map = new MapImage(context, locations[i * 2], locations[i * 2 + 1], current.getZoom(),
+                                        current.getStyle(), current.getSpec());
+            map.resolvePlace();
+            for (MapProvider provider : providers) {
+                if (mapProviders.isCached(provider, map)) {
+                    break;
+                }
+                try {
+                    mapProviders.fetch(provider, map);
+                    RefreshMetrics.getInstance().increment(RefreshMetrics.COUNTER_PLACES_WARMED);
+                    if (BuildConfig.DEBUG) Log.d(TAG, "Warmed " + map.getTitle() + " from " + provider.getName());
+                    break;
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to warm the map from " + provider.getName(), e);
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                places.readFrom(in);
+            }
+            finally {
+                in.close();
+            }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Loaded " + places.size() + " frequent places");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to load the frequent places", e);
+            places.clear();
+        }
+    }
+
+    private void save() {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                places.writeTo(out);
+            }
+            finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save the frequent places", e);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queue of maps downloaded in advance while on WiFi (the current place with other themes and zoom levels, and
+ * the places visited recently), so that the artwork can still change while WiFi is not available without
+ * using mobile data.
+ * When the queue is full, the least recently shown maps are evicted first.
+ */
+public class PrefetchQueue {
+    private static final String TAG = PrefetchQueue.class.getSimpleName();
+
+    private static final String PREFS_NAME = "prefetch_queue";
+    private static final String KEY_ENTRIES = "entries";
+    private static final String KEY_PLACES = "recent_places";
+
+    private static final int MAX_RECENT_PLACES = 5;
+    private static final int[] ZOOM_OFFSETS = {0, -2, 2};
+    private static final int MIN_ZOOM = 0;
+    private static final int MAX_ZOOM = 18;
+
+    private final Context context;
+    private final SharedPreferences settings;
+    private final SharedPreferences storage;
+    private final ImageCache images;
+
+    public PrefetchQueue(Context context, SharedPreferences settings) {
+        this.context = context;
+        this.settings = settings;
+        this.storage = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.images = ImageCache.getPrefetchInstance(context);
+    }
+
+    /**
+     * @return the maximum number of maps in the queue, 0 if the prefetch is disabled
+     */
+    public int getDepth() {
+        int index = settings.getInt(Constants.PREF_PREFETCH_DEPTH, Constants.PREF_PREFETCH_DEPTH_DEFAULT);
+        return context.getResources().getIntArray(R.array.prefetch_depth_values)[index];
+    }
+
+    public long getBudgetBytes() {
+        int index = settings.getInt(Constants.PREF_PREFETCH_BUDGET, Constants.PREF_PREFETCH_BUDGET_DEFAULT);
+        return context.getResources().getIntArray(R.array.prefetch_budget_values)[index] * 1024L * 1024L;
+    }
+
+    public boolean isEnabled() {
+        return getDepth() > 0;
+    }
+
+    /**
+     * Remember a place in which a map has been shown, so that it will be prefetched with other themes
+     */
+    public void recordPlace(float latitude, float longitude) {
+        JSONArray places = readArray(KEY_PLACES);
+        JSONArray updated = new JSONArray();
+        updated.put(latitude + "," + longitude);
+        for (int i = 0; i < places.length() && updated.length() < MAX_RECENT_PLACES; i++) {
+            String place = places.optString(i);
+            if (!place.equals(latitude + "," + longitude)) {
+                updated.put(place);
+            }
+        }
+        storage.edit().putString(KEY_PLACES, updated.toString()).apply();
+    }
+
+    /**
+     * Download the maps needed to refill the queue. To be called only while on WiFi, and never from a refresh,
+     * see {@link PrefetchService}
+     * @param current the map currently shown
+     * @param isInverted whether the lightness of the standard themes should be inverted
+     */
+    public void fill(MapImage current, boolean isInverted) {
+        int depth = getDepth();
+        // Trims the cache if the budget has been lowered since the last fill
+        images.setMaxSize(getBudgetBytes());
+        List<Entry> entries = readEntries();
+        Set<String> tokens = new HashSet<String>();
+        int unshown = 0;
+        for (Entry entry : entries) {
+            tokens.add(entry.token);
+            if (!entry.shown) {
+                unshown++;
+            }
+        }
+        tokens.add(current.getToken());
+
+        int downloaded = 0;
+        try {
+            for (float[] place : getPlaces(current)) {
+                for (int zoomOffset : ZOOM_OFFSETS) {
+                    int zoom = current.getZoom() + zoomOffset;
+                    if (zoom < MIN_ZOOM || zoom > MAX_ZOOM) {
+                        continue;
+                    }
+                    for (MapTheme theme : getThemes(isInverted)) {
+                        if (unshown + downloaded >= depth) {
+                            return;
+                        }
+                        MapImage map = new MapImage(context, place[0], place[1], zoom, theme, current.getSpec());
+                        if (tokens.add(map.getToken())) {
+                            map.resolvePlace();
+                            entries.add(new Entry(map, images.fetch(map.getImageUrl())));
+                            downloaded++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Prefetch interrupted", e);
+        }
+        finally {
+            evict(entries, depth);
+            writeEntries(entries);
+            if (BuildConfig.DEBUG) Log.d(TAG, "Prefetched " + downloaded + " maps, " + entries.size() + " in queue");
+        }
+    }
+
+    /**
+     * Take the least recently shown map from the queue, and mark it as shown
+     * @param currentToken the token of the map currently shown, which will not be returned
+     * @return the map, or null if the queue is empty
+     */
+    public Entry next(String currentToken) {
+        List<Entry> entries = readEntries();
+        Entry next = null;
+        for (Entry entry : entries) {
+            if (!entry.token.equals(currentToken) && (next == null || entry.lastShown < next.lastShown)) {
+                next = entry;
+            }
+        }
+        if (next != null) {
+            next.lastShown = System.currentTimeMillis();
+            next.shown = true;
+            images.touch(next.imageKey);
+            writeEntries(entries);
+        }
+        return next;
+    }
+
+    private List<float[]> getPlaces(MapImage current) {
+        List<float[]> places = new ArrayList<float[]>();
+        places.add(new float[]{current.getLatitude(), current.getLongitude()});
+        JSONArray recent = readArray(KEY_PLACES);
+        for (int i = 0; i < recent.length(); i++) {
+            String[] coordinates = recent.optString(i).split(",");
+            if (coordinates.length == 2) {
+                places.add(new float[]{Float.parseFloat(coordinates[0]), Float.parseFloat(coordinates[1])});
+            }
+        }
+        return places;
+    }
+
+    private List<MapTheme> getThemes(boolean isInverted) {
+        MapThemeRegistry registry = MapThemeRegistry.getInstance(context);
+        List<MapTheme> themes = new ArrayList<MapTheme>();
+        // Imported catalogs can be huge, only the bundled themes are prefetched
+        for (int i = 0; i < registry.getBundledSize(); i++) {
+            MapTheme theme = MapTheme.isStandardTheme(i) ? MapTheme.getStandardTheme(i, isInverted) : registry.getById(i);
+            if (theme != null) {
+                themes.add(theme);
+            }
+        }
+        return themes;
+    }
+
+    /**
+     * Drop the least recently shown entries, and the ones whose image has been evicted from the disk budget.
+     * Maps never shown are dropped only if all the others have been, the oldest first
+     */
+    private void evict(List<Entry> entries, int depth) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (!images.contains(entries.get(i).imageKey)) {
+                entries.remove(i);
+            }
+        }
+        while (entries.size() > depth) {
+            Entry oldest = entries.get(0);
+            for (Entry entry : entries) {
+                if (entry.shown && (!oldest.shown || entry.lastShown < oldest.lastShown)) {
+                    oldest = entry;
+                }
+            }
+            entries.remove(oldest);
+            images.remove(oldest.imageKey);
+        }
+    }
+
+    private List<Entry> readEntries() {
+        JSONArray array = readArray(KEY_ENTRIES);
+        List<Entry> entries = new ArrayList<Entry>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject object = array.optJSONObject(i);
+            if (object != null) {
+                Entry entry = new Entry(object);
+                if (images.contains(entry.imageKey)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void writeEntries(List<Entry> entries) {
+        JSONArray array = new JSONArray();
+        try {
+            for (Entry entry : entries) {
+                array.put(entry.toJson());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to save the prefetch queue", e);
+            return;
+        }
+        storage.edit().putString(KEY_ENTRIES, array.toString()).apply();
+    }
+
+    private JSONArray readArray(String key) {
+        try {
+            return new JSONArray(storage.getString(key, "[]"));
+        } catch (JSONException e) {
+            Log.w(TAG, "Corrupted prefetch data for " + key, e);
+            return new JSONArray();
+        }
+    }
+
+    /**
+     * A map stored in the queue
+     */
+    public static class Entry {
+        public final String token;
+        public final String title;
+        public final String description;
+        public final String intentUrl;
+        public final String imageKey;
+        long lastShown;
+        boolean shown;
+
+        Entry(MapImage map, String imageKey) {
+            this.token = map.getToken();
+            this.title = map.getTitle();
+            this.description = map.getDescription();
+            this.intentUrl = map.getIntentUrl();
+            this.imageKey = imageKey;
+            // Never shown: it comes before all the shown maps in next()
+            this.lastShown = 0;
+            this.shown = false;
+        }
+
+        Entry(JSONObject json) {
+            this.token = json.optString("token");
+            this.title = json.optString("title");
+            this.description = json.optString("description");
+            this.intentUrl = json.optString("intentUrl");
+            this.imageKey = json.optString("imageKey");
+            this.lastShown = json.optLong("lastShown");
+            this.shown = json.optBoolean("shown");
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                .put("token", token)
+                .put("title", title)
+                .put("description", description)
+                .put("intentUrl", intentUrl)
+                .put("imageKey", imageKey)
+                .put("lastShown", lastShown)
+                .put("shown", shown);
+        }
+    }
+}
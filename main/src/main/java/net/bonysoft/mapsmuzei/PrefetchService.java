@@ -0,0 +1,85 @@
+package net.bonysoft.mapsmuzei;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Downloads maps in advance after a refresh has been published. It runs on its own thread, so that the
+ * downloads neither delay the refreshes of {@link MapsArtSource} nor count in their metrics.
+ */
+public class PrefetchService extends IntentService {
+    private static final String TAG = PrefetchService.class.getSimpleName();
+
+    private static final String ACTION_FILL_QUEUE = "fill_queue_action";
+    private static final String ACTION_WARM_PLACES = "warm_places_action";
+    private static final String EXTRA_LATITUDE = "latitude";
+    private static final String EXTRA_LONGITUDE = "longitude";
+    private static final String EXTRA_ZOOM = "zoom";
+
+    public PrefetchService() {
+        super(TAG);
+    }
+
+    /**
+     * Refill the {@link PrefetchQueue} around the map just published
+     */
+    public static void fillQueue(Context context, MapImage published) {
+        context.startService(buildIntent(context, ACTION_FILL_QUEUE, published));
+    }
+
+    /**
+     * Warm the caches for the places the device is likely to go next, see {@link PlacePredictor#warm}
+     */
+    public static void warmPlaces(Context context, MapImage published) {
+        context.startService(buildIntent(context, ACTION_WARM_PLACES, published));
+    }
+
+    private static Intent buildIntent(Context context, String action, MapImage published) {
+        return new Intent(context, PrefetchService.class)
+            .setAction(action)
+            .putExtra(EXTRA_LATITUDE, published.getLatitude())
+            .putExtra(EXTRA_LONGITUDE, published.getLongitude())
+            .putExtra(EXTRA_ZOOM, published.getZoom());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Handle intent: " + intent.getAction());
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (ACTION_FILL_QUEUE.equals(intent.getAction())) {
+            PrefetchQueue prefetchQueue = new PrefetchQueue(this, prefs);
+            // The settings or the network may have changed since the refresh
+            if (prefetchQueue.isEnabled() && Utils.isWiFiConnected(this)) {
+                boolean isInverted = prefs.getBoolean(Constants.PREF_INVERTED, Constants.PREF_INVERTED_DEFAULT);
+                prefetchQueue.fill(buildMap(intent, prefs), isInverted);
+            }
+        }
+        else if (ACTION_WARM_PLACES.equals(intent.getAction())) {
+            MapImage map = buildMap(intent, prefs);
+            int renderMode = prefs.getInt(Constants.PREF_RENDER_MODE, Constants.PREF_RENDER_MODE_DEFAULT);
+            MapProvider[] providers = MapProviders.getInstance(this).rank(renderMode, map.getStyle());
+            PlacePredictor.getInstance(this).warm(map, providers);
+        }
+    }
+
+    /**
+     * @return the published map, with the current settings
+     */
+    private MapImage buildMap(Intent intent, SharedPreferences prefs) {
+        int mapTheme = prefs.getInt(Constants.PREF_MAP_TYPE, Constants.PREF_MAP_TYPE_DEFAULT);
+        boolean isInverted = prefs.getBoolean(Constants.PREF_INVERTED, Constants.PREF_INVERTED_DEFAULT);
+        boolean dataSaver = prefs.getBoolean(Constants.PREF_DATA_SAVER, Constants.PREF_DATA_SAVER_DEFAULT);
+        MapTheme style = MapThemeRegistry.resolve(this, mapTheme, isInverted);
+        ImageSpec spec = Utils.getImageSpec(this, dataSaver, style.getMapMode());
+        return new MapImage(this, intent.getFloatExtra(EXTRA_LATITUDE, 0), intent.getFloatExtra(EXTRA_LONGITUDE, 0),
+                            intent.getIntExtra(EXTRA_ZOOM, Constants.PREF_ZOOM_DEFAULT), style, spec);
+    }
+}
@@ -0,0 +1,36 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Enabled only while a refresh is waiting for a better window (charging, WiFi or unmetered network).
+ * When that window comes, it triggers the refresh and disables itself.
+ */
+public class RefreshConstraintsReceiver extends BroadcastReceiver {
+    private static final String TAG = RefreshConstraintsReceiver.class.getSimpleName();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (System.currentTimeMillis() < prefs.getLong(RefreshScheduler.PREF_EARLIEST_UPDATE, 0)) {
+            return;
+        }
+
+        boolean wifiOnly = prefs.getBoolean(Constants.PREF_WIFI_ONLY, Constants.PREF_WIFI_ONLY_DEFAULT);
+        boolean wifi = Utils.isWiFiConnected(context);
+        if (wifiOnly ? !wifi : !(wifi || Utils.isCharging(context) || Utils.isUnmeteredConnection(context))) {
+            return;
+        }
+
+        if (BuildConfig.DEBUG) Log.d(TAG, "Refresh window available: " + intent.getAction());
+        RefreshScheduler.setConstraintsReceiverEnabled(context, false);
+        Intent refresh = new Intent(MapsArtSource.ACTION_REFRESH_WINDOW);
+        refresh.setClass(context, MapsArtSource.class);
+        context.startService(refresh);
+    }
+}
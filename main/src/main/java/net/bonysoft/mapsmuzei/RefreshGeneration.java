@@ -0,0 +1,25 @@
+package net.bonysoft.mapsmuzei;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generation number of the settings, incremented every time they are modified. A refresh remembers the
+ * generation it started with, and gives up as soon as it is no longer the current one, since its map would be
+ * replaced right away by the one built with the new settings.
+ */
+public class RefreshGeneration {
+
+    private static final AtomicInteger sCurrent = new AtomicInteger();
+
+    public static int current() {
+        return sCurrent.get();
+    }
+
+    public static int next() {
+        return sCurrent.incrementAndGet();
+    }
+
+    public static boolean isCurrent(int generation) {
+        return sCurrent.get() == generation;
+    }
+}
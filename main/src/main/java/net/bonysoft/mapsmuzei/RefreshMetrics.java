@@ -0,0 +1,240 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Low overhead latency histograms and counters for the stages of a refresh. Latencies are collected in
+ * power-of-two buckets of microseconds, so recording a sample never allocates.
+ * The collected data can be read with "adb shell dumpsys activity service MapsArtSource".
+ */
+public class RefreshMetrics {
+    private static final String TAG = RefreshMetrics.class.getSimpleName();
+
+    private static final String EXPORT_FILE_NAME = "refresh_metrics.txt";
+
+    // Stages
+    public static final int STAGE_PREFS = 0;
+    public static final int STAGE_LOCATION = 1;
+    public static final int STAGE_FAKE_LOCATION = 2;
+    public static final int STAGE_GEOCODE = 3;
+    public static final int STAGE_THEME = 4;
+    public static final int STAGE_URL = 5;
+    public static final int STAGE_IMAGE = 6;
+    public static final int STAGE_PUBLISH = 7;
+    public static final int STAGE_SCHEDULE = 8;
+    public static final int STAGE_TOTAL = 9;
+    public static final int STAGE_EFFECTS = 10;
+    // One stage for each EffectProcessor.EFFECT_ constant
+    public static final int STAGE_FIRST_EFFECT = 11;
+    private static final String[] STAGE_NAMES = {"prefs", "location", "fake_location", "geocode", "theme", "url",
+                                                 "image", "publish", "schedule", "total", "effects",
+                                                 "effect_blur", "effect_desaturate", "effect_tint", "effect_dim",
+                                                 "effect_vignette"};
+
+    // Counters
+    public static final int COUNTER_SUCCESS = 0;
+    public static final int COUNTER_SKIPPED_NO_WIFI = 1;
+    public static final int COUNTER_SKIPPED_SAME_MAP = 2;
+    public static final int COUNTER_GEOCODE_FAILURE = 3;
+    public static final int COUNTER_FAKE_LOCATION = 4;
+    public static final int COUNTER_IMAGE_FAILURE = 5;
+    public static final int COUNTER_BYTES_DOWNLOADED = 6;
+    public static final int COUNTER_BITMAP_BYTES = 7;
+    public static final int COUNTER_FRESH_FIX = 8;
+    public static final int COUNTER_GEOCODE_TIMEOUT = 9;
+    public static final int COUNTER_STALE_ABANDONED = 10;
+    // Refreshes at a frequent place other than the one of the previous refresh, see PlacePredictor
+    public static final int COUNTER_ARRIVALS = 11;
+    public static final int COUNTER_ARRIVAL_GEOCODE_HITS = 12;
+    public static final int COUNTER_ARRIVAL_IMAGE_HITS = 13;
+    public static final int COUNTER_PLACES_WARMED = 14;
+    public static final int COUNTER_SKIPPED_LOOKALIKE = 15;
+    // Lookups of GeocodeCache, every hit is a Geocoder round-trip saved
+    public static final int COUNTER_GEOCODE_HIT = 16;
+    public static final int COUNTER_GEOCODE_MISS = 17;
+    private static final String[] COUNTER_NAMES = {"success", "skipped_no_wifi", "skipped_same_map",
+                                                   "geocode_failure", "fake_location", "image_failure",
+                                                   "bytes_downloaded", "bitmap_bytes", "fresh_fix",
+                                                   "geocode_timeout", "stale_abandoned", "arrivals",
+                                                   "arrival_geocode_hits", "arrival_image_hits", "places_warmed",
+                                                   "skipped_lookalike", "geocode_hit", "geocode_miss"};
+
+    private static final int BUCKETS = 32;
+
+    private static final RefreshMetrics sInstance = new RefreshMetrics();
+
+    private final long[][] histograms = new long[STAGE_NAMES.length][BUCKETS];
+    private final long[] totalMicros = new long[STAGE_NAMES.length];
+    private final long[] maxMicros = new long[STAGE_NAMES.length];
+    private final long[] counters = new long[COUNTER_NAMES.length];
+    private final long startedAt = System.currentTimeMillis();
+    private long refreshPeakHeapBytes;
+    private long lastPeakHeapBytes;
+    private long maxPeakHeapBytes;
+
+    public static RefreshMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return the current time, to be passed to {@link #record(int, long)} at the end of the stage
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the duration of a stage
+     * @param stage one of the STAGE_ constants
+     * @param startNanos the value of {@link #now()} at the beginning of the stage
+     */
+    public void record(int stage, long startNanos) {
+        recordDuration(stage, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record the duration of a stage measured elsewhere
+     * @param stage one of the STAGE_ constants
+     */
+    public synchronized void recordDuration(int stage, long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        histograms[stage][bucket]++;
+        totalMicros[stage] += micros;
+        maxMicros[stage] = Math.max(maxMicros[stage], micros);
+    }
+
+    /**
+     * @param counter one of the COUNTER_ constants
+     */
+    public synchronized void increment(int counter) {
+        counters[counter]++;
+    }
+
+    /**
+     * @param counter one of the COUNTER_ constants
+     */
+    public synchronized void add(int counter, long amount) {
+        counters[counter] += amount;
+    }
+
+    /**
+     * Start tracking the peak heap of a refresh, see {@link #sampleHeap()}
+     */
+    public synchronized void startHeapTracking() {
+        refreshPeakHeapBytes = 0;
+        sampleHeap();
+    }
+
+    /**
+     * Sample the memory in use, Java and native heap, as the bitmaps live in either depending on the Android version.
+     * To be called where the memory use is likely to be the highest, e.g. right after decoding an image
+     */
+    public synchronized void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+        refreshPeakHeapBytes = Math.max(refreshPeakHeapBytes, used);
+    }
+
+    /**
+     * @return the peak heap sampled since {@link #startHeapTracking()}, in bytes
+     */
+    public synchronized long stopHeapTracking() {
+        sampleHeap();
+        lastPeakHeapBytes = refreshPeakHeapBytes;
+        maxPeakHeapBytes = Math.max(maxPeakHeapBytes, refreshPeakHeapBytes);
+        return lastPeakHeapBytes;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Refresh metrics since " + new Date(startedAt));
+        writer.println("Counters:");
+        for (int i = 0; i < COUNTER_NAMES.length; i++) {
+            writer.println("  " + COUNTER_NAMES[i] + ": " + counters[i]);
+        }
+        if (counters[COUNTER_SUCCESS] > 0) {
+            writer.println("  bytes_downloaded per refresh: " + counters[COUNTER_BYTES_DOWNLOADED] / counters[COUNTER_SUCCESS]);
+            writer.println("  bitmap_bytes per refresh: " + counters[COUNTER_BITMAP_BYTES] / counters[COUNTER_SUCCESS]);
+        }
+        if (counters[COUNTER_GEOCODE_HIT] + counters[COUNTER_GEOCODE_MISS] > 0) {
+            writer.println("  geocode cache hit rate: " + formatPercent(counters[COUNTER_GEOCODE_HIT],
+                                                                        counters[COUNTER_GEOCODE_HIT] + counters[COUNTER_GEOCODE_MISS]));
+        }
+        if (counters[COUNTER_ARRIVALS] > 0) {
+            writer.println("  arrival geocode hit rate: " + formatPercent(counters[COUNTER_ARRIVAL_GEOCODE_HITS], counters[COUNTER_ARRIVALS]));
+            writer.println("  arrival image hit rate: " + formatPercent(counters[COUNTER_ARRIVAL_IMAGE_HITS], counters[COUNTER_ARRIVALS]));
+        }
+        writer.println("Peak heap during a refresh: last " + formatMegabytes(lastPeakHeapBytes)
+                       + ", max " + formatMegabytes(maxPeakHeapBytes));
+        writer.println("Stages (count, mean, max, p50, p90, p99; upper bounds in ms):");
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            long count = 0;
+            for (long bucketCount : histograms[stage]) {
+                count += bucketCount;
+            }
+            if (count == 0) {
+                writer.println("  " + STAGE_NAMES[stage] + ": no samples");
+                continue;
+            }
+            writer.println("  " + STAGE_NAMES[stage] + ": " + count
+                           + ", " + formatMillis(totalMicros[stage] / count)
+                           + ", " + formatMillis(maxMicros[stage])
+                           + ", " + formatMillis(percentile(stage, count, 0.5))
+                           + ", " + formatMillis(percentile(stage, count, 0.9))
+                           + ", " + formatMillis(percentile(stage, count, 0.99)));
+        }
+    }
+
+    /**
+     * Write the current metrics to a file in the private files directory
+     * @return the written file
+     */
+    public File export(Context context) throws IOException {
+        File file = new File(context.getFilesDir(), EXPORT_FILE_NAME);
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            dump(writer);
+        }
+        finally {
+            writer.close();
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Metrics exported to " + file);
+        return file;
+    }
+
+    /**
+     * @return the upper bound, in microseconds, of the bucket containing the given percentile
+     */
+    private long percentile(int stage, long count, double percentile) {
+        long threshold = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histograms[stage][bucket];
+            if (seen >= threshold) {
+                return 1L << bucket;
+            }
+        }
+        return maxMicros[stage];
+    }
+
+    private static String formatPercent(long count, long total) {
+        return String.format(Locale.US, "%.0f%%", count * 100d / total);
+    }
+
+    static String formatMegabytes(long bytes) {
+        return String.format(Locale.US, "%.1fMB", bytes / (1024d * 1024));
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format(Locale.US, "%.1f", micros / 1000d);
+    }
+}
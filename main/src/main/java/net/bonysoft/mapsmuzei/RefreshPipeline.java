@@ -0,0 +1,91 @@
+package net.bonysoft.mapsmuzei;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded executor used to run the independent stages of a refresh (theme resolution, reverse geocoding and
+ * image download) at the same time, so that a refresh takes as long as its slowest stage instead of their sum.
+ */
+public class RefreshPipeline {
+    private static final String TAG = RefreshPipeline.class.getSimpleName();
+
+    public static final long THEME_TIMEOUT_MILLIS = 5 * 1000;
+    public static final long GEOCODE_TIMEOUT_MILLIS = 3 * 1000;
+    public static final long IMAGE_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final int THREADS = 3;
+    private static final long POLL_MILLIS = 250;
+
+    private static final RefreshPipeline sInstance = new RefreshPipeline();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    public static RefreshPipeline getInstance() {
+        return sInstance;
+    }
+
+    public <T> Future<T> submit(Callable<T> stage) {
+        return executor.submit(stage);
+    }
+
+    /**
+     * Wait for a stage, which keeps running in background if it takes too long
+     * @return the result of the stage, or the fallback value if it failed or timed out
+     */
+    public static <T> T await(Future<T> stage, long timeoutMillis, T fallback, String name) {
+        try {
+            return stage.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Stage " + name + " timed out after " + timeoutMillis + "ms");
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Stage " + name + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return fallback;
+    }
+
+    /**
+     * Wait for a stage whose failure fails the whole refresh. The stage is cancelled if it takes too long, or
+     * if the settings are modified in the meantime
+     * @param generation the {@link RefreshGeneration} the refresh started with
+     * @throws CancellationException if the settings have been modified
+     */
+    public static <T> T awaitOrThrow(Future<T> stage, long timeoutMillis, String name, int generation) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (true) {
+                if (!RefreshGeneration.isCurrent(generation)) {
+                    stage.cancel(true);
+                    throw new CancellationException("Settings modified while waiting for stage " + name);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    stage.cancel(true);
+                    throw new IOException("Stage " + name + " timed out after " + timeoutMillis + "ms");
+                }
+                try {
+                    return stage.get(Math.min(remaining, POLL_MILLIS), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the generation and the deadline again
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            stage.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for stage " + name);
+        }
+    }
+}
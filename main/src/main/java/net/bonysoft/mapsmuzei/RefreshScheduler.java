@@ -0,0 +1,158 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compute when the next refresh should happen.
+ *
+ * In adaptive mode the interval chosen by the user is the shortest one: it is used while the device is moving,
+ * and it is doubled at every refresh in which the device is still in the same area, up to
+ * {@link #MAX_UPDATE_MINUTES}. Deferred refreshes are anticipated as soon as the device is charging or on an
+ * unmetered network, through {@link RefreshConstraintsReceiver}, and as soon as a fix shows that the device left
+ * the area, through {@link TrackReceiver}.
+ */
+public class RefreshScheduler {
+    private static final String TAG = RefreshScheduler.class.getSimpleName();
+
+    private static final String PREF_LAST_CELL = "scheduler_last_cell";
+    private static final String PREF_STATIONARY_COUNT = "scheduler_stationary_count";
+    private static final String PREF_FAILED_ATTEMPTS = "scheduler_failed_attempts";
+    private static final String PREF_LAST_REFRESH = "scheduler_last_refresh";
+    static final String PREF_EARLIEST_UPDATE = "scheduler_earliest_update";
+
+    private static final int MAX_UPDATE_MINUTES = 24 * 60;
+    private static final int MAX_STATIONARY_STEPS = 4;
+
+    /**
+     * The device is considered stationary while it stays in the same 256px cell at this zoom level (~1.2km)
+     */
+    private static final int MOVEMENT_ZOOM = 12;
+    private static final int MOVEMENT_CELL_PIXELS = 256;
+
+    private static final Random sRandom = new Random();
+
+    private final Context context;
+    private final SharedPreferences prefs;
+
+    public RefreshScheduler(Context context, SharedPreferences prefs) {
+        this.context = context;
+        this.prefs = prefs;
+    }
+
+    /**
+     * @return the interval chosen by the user in the settings, in minutes
+     */
+    public int getConfiguredMinutes() {
+        int updateTimeIndex = prefs.getInt(Constants.PREF_UPDATE_INTERVAL, Constants.PREF_UPDATE_INTERVAL_DEFAULT);
+        return context.getResources().getIntArray(R.array.update_frequency_values)[updateTimeIndex];
+    }
+
+    /**
+     * Compute the delay before the next refresh, after a refresh made at the given location
+     * @return the delay in milliseconds
+     */
+    public long getNextUpdateDelay(float latitude, float longitude) {
+        prefs.edit().remove(PREF_FAILED_ATTEMPTS).apply();
+        int configuredMinutes = getConfiguredMinutes();
+        if (!prefs.getBoolean(Constants.PREF_ADAPTIVE_REFRESH, Constants.PREF_ADAPTIVE_REFRESH_DEFAULT)) {
+            return minutesToMillis(configuredMinutes);
+        }
+
+        String cell = MapGrid.cellKey(latitude, longitude, MOVEMENT_ZOOM, MOVEMENT_CELL_PIXELS);
+        int stationaryCount = 0;
+        if (cell.equals(prefs.getString(PREF_LAST_CELL, null))) {
+            stationaryCount = Math.min(prefs.getInt(PREF_STATIONARY_COUNT, 0) + 1, MAX_STATIONARY_STEPS);
+        }
+        prefs.edit()
+             .putString(PREF_LAST_CELL, cell)
+             .putInt(PREF_STATIONARY_COUNT, stationaryCount)
+             .putLong(PREF_LAST_REFRESH, System.currentTimeMillis())
+             .apply();
+
+        int minutes = Math.max(configuredMinutes, Math.min(configuredMinutes << stationaryCount, MAX_UPDATE_MINUTES));
+        if (minutes > configuredMinutes && (Utils.isCharging(context) || Utils.isUnmeteredConnection(context))) {
+            // Already in the window in which deferred refreshes are anticipated, the backoff resumes when it ends
+            minutes = configuredMinutes;
+            setConstraintsReceiverEnabled(context, false);
+        }
+        else if (minutes > configuredMinutes) {
+            // Anticipate the deferred refresh if a better window comes, but not before the configured interval
+            waitForConstraints(System.currentTimeMillis() + minutesToMillis(configuredMinutes));
+        }
+        else {
+            setConstraintsReceiverEnabled(context, false);
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Stationary for " + stationaryCount + " refreshes, next in " + minutes + " minutes");
+        return minutesToMillis(minutes);
+    }
+
+    /**
+     * A fix has been collected in background. If the refresh has been deferred because the device was stationary,
+     * and the fix is out of the area of the last refresh, the backoff is reset
+     * @return the time at which the next refresh should happen, the configured interval after the last one, or 0
+     * if the current schedule is fine
+     */
+    public long onLocationChanged(float latitude, float longitude) {
+        if (!prefs.getBoolean(Constants.PREF_ADAPTIVE_REFRESH, Constants.PREF_ADAPTIVE_REFRESH_DEFAULT)
+            || prefs.getInt(PREF_STATIONARY_COUNT, 0) == 0 || !MapLocations.isValid(latitude, longitude)) {
+            return 0;
+        }
+        String lastCell = prefs.getString(PREF_LAST_CELL, null);
+        if (lastCell == null || lastCell.equals(MapGrid.cellKey(latitude, longitude, MOVEMENT_ZOOM, MOVEMENT_CELL_PIXELS))) {
+            return 0;
+        }
+        prefs.edit().putInt(PREF_STATIONARY_COUNT, 0).apply();
+        if (BuildConfig.DEBUG) Log.d(TAG, "Moving again, refreshing at the configured interval");
+        return prefs.getLong(PREF_LAST_REFRESH, 0) + minutesToMillis(getConfiguredMinutes());
+    }
+
+    /**
+     * The refresh has been skipped because the device is not on WiFi: refresh again as soon as WiFi is
+     * available, or after the configured interval
+     * @return the delay in milliseconds
+     */
+    public long getNoWiFiDelay() {
+        waitForConstraints(System.currentTimeMillis());
+        return minutesToMillis(getConfiguredMinutes());
+    }
+
+    /**
+     * The refresh failed: retry with exponential backoff and jitter, up to the configured interval, and not before
+     * the upstream can be called again
+     * @return the delay in milliseconds
+     */
+    public long getRetryDelay(IOException error) {
+        int attempts = prefs.getInt(PREF_FAILED_ATTEMPTS, 0) + 1;
+        prefs.edit().putInt(PREF_FAILED_ATTEMPTS, attempts).apply();
+        long delay = RetryPolicy.forRefresh(minutesToMillis(getConfiguredMinutes())).getDelay(attempts, sRandom);
+        if (error instanceof UpstreamUnavailableException) {
+            delay = Math.max(delay, ((UpstreamUnavailableException) error).retryAt - System.currentTimeMillis());
+        }
+        if (BuildConfig.DEBUG) Log.d(TAG, "Failed attempt #" + attempts + ", retrying in " + delay / 1000 + "s");
+        return delay;
+    }
+
+    private void waitForConstraints(long earliestUpdate) {
+        prefs.edit().putLong(PREF_EARLIEST_UPDATE, earliestUpdate).apply();
+        setConstraintsReceiverEnabled(context, true);
+    }
+
+    static void setConstraintsReceiverEnabled(Context context, boolean enabled) {
+        ComponentName receiver = new ComponentName(context, RefreshConstraintsReceiver.class);
+        context.getPackageManager().setComponentEnabledSetting(receiver,
+                                                               enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                                                                       : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                                                               PackageManager.DONT_KILL_APP);
+    }
+
+    private static long minutesToMillis(int minutes) {
+        return minutes * 60 * 1000L;
+    }
+}
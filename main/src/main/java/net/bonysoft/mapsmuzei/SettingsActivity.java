@@ -2,54 +2,96 @@ package net.bonysoft.mapsmuzei;
 
 import android.animation.LayoutTransition;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 public class SettingsActivity extends Activity {
+    private static final String TAG = SettingsActivity.class.getSimpleName();
+
+    private static final int REQUEST_IMPORT_THEMES = 1;
 
     private ViewGroup mMainView;
     private TextView mZoomValue;
     private Spinner mUpdateInterval;
     private Spinner mMapType;
+    private Spinner mRenderMode;
     private CheckBox mInvertLightness;
     private SeekBar mZoom;
     private Switch mWiFiOnly;
+    private Switch mAdaptiveRefresh;
+    private Switch mDataSaver;
+    private Switch mShowTrack;
+    private Spinner mLocationPower;
+    private Spinner mDim;
+    private Spinner mEffect;
+    private Spinner mPrefetchDepth;
+    private Spinner mPrefetchBudget;
+    private MapPreview mPreview;
+    private ThemeSpinnerAdapter mMapTypesAdapter;
 
     private SharedPreferences mPrefs;
+    // All the changes made in this session are written at once in onPause()
+    private SharedPreferences.Editor mPendingEdits;
     private boolean isSomethingModified = false;
     private boolean isVisibilityInitDone = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        final long createStart = StartupMetrics.now();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_settings);
 
         mMainView = (ViewGroup) findViewById(R.id.layout_main);
+        mMainView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mMainView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupMetrics.onFirstFrame(createStart);
+                return true;
+            }
+        });
         mMapType = (Spinner) findViewById(R.id.map_type_spinner);
+        mRenderMode = (Spinner) findViewById(R.id.render_mode_spinner);
         mUpdateInterval = (Spinner) findViewById(R.id.update_interval_spinner);
         mInvertLightness = (CheckBox) findViewById(R.id.check_inverse);
         mZoom = (SeekBar) findViewById(R.id.zoom_bar);
         mZoomValue = (TextView) findViewById(R.id.zoom_value);
         mWiFiOnly = (Switch) findViewById(R.id.wifi_only_switch);
+        mAdaptiveRefresh = (Switch) findViewById(R.id.adaptive_refresh_switch);
+        mDataSaver = (Switch) findViewById(R.id.data_saver_switch);
+        mShowTrack = (Switch) findViewById(R.id.show_track_switch);
+        mLocationPower = (Spinner) findViewById(R.id.location_power_spinner);
+        mDim = (Spinner) findViewById(R.id.dim_spinner);
+        mEffect = (Spinner) findViewById(R.id.effect_spinner);
+        mPrefetchDepth = (Spinner) findViewById(R.id.prefetch_depth_spinner);
+        mPrefetchBudget = (Spinner) findViewById(R.id.prefetch_budget_spinner);
+        mPreview = new MapPreview(this, (ImageView) findViewById(R.id.map_preview));
+
+        loadMapTypes();
 
-        ArrayAdapter<CharSequence> mapTypesAdapter =
+        ArrayAdapter<CharSequence> renderModesAdapter =
             ArrayAdapter.createFromResource(this,
-                                            R.array.map_types_titles,
+                                            R.array.render_mode_titles,
                                             android.R.layout.simple_spinner_item);
-        mapTypesAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        mMapType.setAdapter(mapTypesAdapter);
-        mMapType.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+        renderModesAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mRenderMode.setAdapter(renderModesAdapter);
+        mRenderMode.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                savePreference(Constants.PREF_MAP_TYPE, position);
-                boolean goingToVisible = position == MapTheme.MODE_MAP || position == MapTheme.MODE_TERRAIN;
-                mInvertLightness.setVisibility(goingToVisible ? View.VISIBLE : View.GONE);
-                enableAnimateLayoutChanges();
+                savePreference(Constants.PREF_RENDER_MODE, position);
             }
 
             @Override
@@ -73,11 +115,92 @@ public class SettingsActivity extends Activity {
             public void onNothingSelected(AdapterView<?> parent) {}
         });
 
+        ArrayAdapter<CharSequence> dimAdapter =
+            ArrayAdapter.createFromResource(this,
+                                            R.array.dim_titles,
+                                            android.R.layout.simple_spinner_item);
+        dimAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mDim.setAdapter(dimAdapter);
+        mDim.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                savePreference(Constants.PREF_DIM, position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        ArrayAdapter<CharSequence> effectAdapter =
+            ArrayAdapter.createFromResource(this,
+                                            R.array.effect_titles,
+                                            android.R.layout.simple_spinner_item);
+        effectAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mEffect.setAdapter(effectAdapter);
+        mEffect.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                savePreference(Constants.PREF_EFFECT, position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        ArrayAdapter<CharSequence> locationPowerAdapter =
+            ArrayAdapter.createFromResource(this,
+                                            R.array.location_power_titles,
+                                            android.R.layout.simple_spinner_item);
+        locationPowerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mLocationPower.setAdapter(locationPowerAdapter);
+        mLocationPower.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                savePreference(Constants.PREF_LOCATION_POWER, position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        ArrayAdapter<CharSequence> prefetchDepthAdapter =
+            ArrayAdapter.createFromResource(this,
+                                            R.array.prefetch_depth_titles,
+                                            android.R.layout.simple_spinner_item);
+        prefetchDepthAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mPrefetchDepth.setAdapter(prefetchDepthAdapter);
+        mPrefetchDepth.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                savePreference(Constants.PREF_PREFETCH_DEPTH, position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
+        ArrayAdapter<CharSequence> prefetchBudgetAdapter =
+            ArrayAdapter.createFromResource(this,
+                                            R.array.prefetch_budget_titles,
+                                            android.R.layout.simple_spinner_item);
+        prefetchBudgetAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        mPrefetchBudget.setAdapter(prefetchBudgetAdapter);
+        mPrefetchBudget.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                savePreference(Constants.PREF_PREFETCH_BUDGET, position);
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {}
+        });
+
         mZoom.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 mZoomValue.setText(String.valueOf(progress));
                 savePreference(Constants.PREF_ZOOM, progress);
+                updatePreview();
             }
 
             @Override
@@ -93,6 +216,7 @@ public class SettingsActivity extends Activity {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
                 saveBooleanPreference(Constants.PREF_INVERTED, isChecked);
+                updatePreview();
             }
         });
 
@@ -103,9 +227,149 @@ public class SettingsActivity extends Activity {
             }
         });
 
+        mAdaptiveRefresh.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
+                saveBooleanPreference(Constants.PREF_ADAPTIVE_REFRESH, checked);
+            }
+        });
+
+        mDataSaver.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
+                saveBooleanPreference(Constants.PREF_DATA_SAVER, checked);
+            }
+        });
+
+        mShowTrack.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton compoundButton, boolean checked) {
+                saveBooleanPreference(Constants.PREF_SHOW_TRACK, checked);
+                if (!checked) {
+                    // Don't keep a history of the locations nobody is going to see
+                    clearTrack();
+                }
+            }
+        });
+
+        findViewById(R.id.import_themes_button).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, REQUEST_IMPORT_THEMES);
+            }
+        });
+
         initFromPreferences();
     }
 
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_THEMES && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importThemes(data.getData());
+        }
+        else {
+            super.onActivityResult(requestCode, resultCode, data);
+        }
+    }
+
+    /**
+     * Load the themes in background, parsing them and opening the catalog would delay the first frame, then
+     * fill the map type spinner and select the saved map type
+     */
+    private void loadMapTypes() {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, MapThemeRegistry>() {
+            @Override
+            protected MapThemeRegistry doInBackground(Void... params) {
+                long loadStart = StartupMetrics.now();
+                MapThemeRegistry registry = MapThemeRegistry.getInstance(context);
+                StartupMetrics.onThemesLoaded(loadStart);
+                return registry;
+            }
+
+            @Override
+            protected void onPostExecute(MapThemeRegistry registry) {
+                if (isFinishing()) {
+                    return;
+                }
+                mMapTypesAdapter = new ThemeSpinnerAdapter(SettingsActivity.this, registry);
+                mMapType.setAdapter(mMapTypesAdapter);
+                mMapType.setSelection(Math.min(mPrefs.getInt(Constants.PREF_MAP_TYPE, Constants.PREF_MAP_TYPE_DEFAULT),
+                                               mMapTypesAdapter.getCount() - 1));
+                mMapType.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+                    @Override
+                    public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                        savePreference(Constants.PREF_MAP_TYPE, position);
+                        boolean goingToVisible = position == MapTheme.MODE_MAP || position == MapTheme.MODE_TERRAIN;
+                        mInvertLightness.setVisibility(goingToVisible ? View.VISIBLE : View.GONE);
+                        enableAnimateLayoutChanges();
+                        updatePreview();
+                    }
+
+                    @Override
+                    public void onNothingSelected(AdapterView<?> parent) {}
+                });
+            }
+        }.execute();
+    }
+
+    /**
+     * Delete the recorded track in background, loading it may need the disk too
+     */
+    private void clearTrack() {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                TrackRecorder.getInstance(context).clear();
+                return null;
+            }
+        }.execute();
+    }
+
+    /**
+     * Import a themes catalog in background, then show the new themes in the map type spinner
+     */
+    private void importThemes(final Uri uri) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                try {
+                    InputStream in = context.getContentResolver().openInputStream(uri);
+                    try {
+                        int imported = ThemeCatalogImporter.importCatalog(context, in);
+                        // Load the new catalog here rather than on the main thread
+                        MapThemeRegistry.getInstance(context);
+                        return imported;
+                    }
+                    finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to import themes from " + uri, e);
+                    return -1;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Integer imported) {
+                if (imported >= 0) {
+                    Toast.makeText(context, getString(R.string.import_themes_done, imported), Toast.LENGTH_SHORT).show();
+                    if (mMapTypesAdapter != null) {
+                        mMapTypesAdapter.setRegistry(MapThemeRegistry.getInstance(context));
+                    }
+                }
+                else {
+                    Toast.makeText(context, R.string.import_themes_failed, Toast.LENGTH_SHORT).show();
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Enable the layout animations for the container layout
      */
@@ -116,10 +380,35 @@ public class SettingsActivity extends Activity {
         }
     }
 
+    /**
+     * Show a preview of the map for the settings being edited. The full size map is downloaded only once the
+     * settings are saved
+     */
+    private void updatePreview() {
+        if (mMapTypesAdapter == null) {
+            // The map types are still loading, the preview is shown once they are selected
+            return;
+        }
+        mPreview.show(mMapType.getSelectedItemPosition(), mZoom.getProgress(), mInvertLightness.isChecked());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPreview.release();
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
+        if (mPendingEdits != null) {
+            mPendingEdits.apply();
+            mPendingEdits = null;
+        }
         if (isSomethingModified) {
+            isSomethingModified = false;
+            // Make any refresh still running with the old settings give up
+            RefreshGeneration.next();
             Intent intent = new Intent(MapsArtSource.ACTION_SETTINGS_MODIFIED);
             intent.setClass(this, MapsArtSource.class);
             startService(intent);
@@ -134,33 +423,59 @@ public class SettingsActivity extends Activity {
             mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         }
         boolean isInverted = mPrefs.getBoolean(Constants.PREF_INVERTED, Constants.PREF_INVERTED_DEFAULT);
-        int mapMode = mPrefs.getInt(Constants.PREF_MAP_TYPE, Constants.PREF_MAP_TYPE_DEFAULT);
+        int renderMode = mPrefs.getInt(Constants.PREF_RENDER_MODE, Constants.PREF_RENDER_MODE_DEFAULT);
         int zoom = mPrefs.getInt(Constants.PREF_ZOOM, Constants.PREF_ZOOM_DEFAULT);
         int updateInterval = mPrefs.getInt(Constants.PREF_UPDATE_INTERVAL, Constants.PREF_UPDATE_INTERVAL_DEFAULT);
         boolean wifiOnly = mPrefs.getBoolean(Constants.PREF_WIFI_ONLY, Constants.PREF_WIFI_ONLY_DEFAULT);
+        boolean adaptiveRefresh = mPrefs.getBoolean(Constants.PREF_ADAPTIVE_REFRESH, Constants.PREF_ADAPTIVE_REFRESH_DEFAULT);
+        boolean dataSaver = mPrefs.getBoolean(Constants.PREF_DATA_SAVER, Constants.PREF_DATA_SAVER_DEFAULT);
+        boolean showTrack = mPrefs.getBoolean(Constants.PREF_SHOW_TRACK, Constants.PREF_SHOW_TRACK_DEFAULT);
+        int locationPower = mPrefs.getInt(Constants.PREF_LOCATION_POWER, Constants.PREF_LOCATION_POWER_DEFAULT);
+        int dim = mPrefs.getInt(Constants.PREF_DIM, Constants.PREF_DIM_DEFAULT);
+        int effect = mPrefs.getInt(Constants.PREF_EFFECT, Constants.PREF_EFFECT_DEFAULT);
+        int prefetchDepth = mPrefs.getInt(Constants.PREF_PREFETCH_DEPTH, Constants.PREF_PREFETCH_DEPTH_DEFAULT);
+        int prefetchBudget = mPrefs.getInt(Constants.PREF_PREFETCH_BUDGET, Constants.PREF_PREFETCH_BUDGET_DEFAULT);
 
         mInvertLightness.setChecked(isInverted);
-        mMapType.setSelection(mapMode);
+        mRenderMode.setSelection(renderMode);
         mUpdateInterval.setSelection(updateInterval);
         mZoom.setProgress(zoom);
         mZoomValue.setText(String.valueOf(zoom));
         mWiFiOnly.setChecked(wifiOnly);
+        mAdaptiveRefresh.setChecked(adaptiveRefresh);
+        mDataSaver.setChecked(dataSaver);
+        mShowTrack.setChecked(showTrack);
+        mLocationPower.setSelection(locationPower);
+        mDim.setSelection(dim);
+        mEffect.setSelection(effect);
+        mPrefetchDepth.setSelection(prefetchDepth);
+        mPrefetchBudget.setSelection(prefetchBudget);
     }
 
     private void saveBooleanPreference(String key, boolean value) {
-        if (mPrefs == null) {
-            mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        SharedPreferences.Editor editor = getPendingEdits();
+        if (!mPrefs.contains(key) || mPrefs.getBoolean(key, value) != value) {
+            isSomethingModified = true;
         }
-        isSomethingModified = true;
-        mPrefs.edit().putBoolean(key, value).apply();
+        editor.putBoolean(key, value);
     }
 
     private void savePreference(String key, int value) {
+        SharedPreferences.Editor editor = getPendingEdits();
+        if (!mPrefs.contains(key) || mPrefs.getInt(key, value) != value) {
+            isSomethingModified = true;
+        }
+        editor.putInt(key, value);
+    }
+
+    private SharedPreferences.Editor getPendingEdits() {
         if (mPrefs == null) {
             mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         }
-        isSomethingModified = true;
-        mPrefs.edit().putInt(key, value).apply();
+        if (mPendingEdits == null) {
+            mPendingEdits = mPrefs.edit();
+        }
+        return mPendingEdits;
     }
 
 }
@@ -0,0 +1,79 @@
+package net.bonysoft.mapsmuzei;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Cold start cost of the process: how long {@link MapsMuzeiApplication#onCreate()} takes, how long it takes
+ * for the first frame of the settings to be drawn, both from the start of the process and from the creation of
+ * the activity, and how long loading the themes takes in background before the map types can be shown.
+ * Only the first launch of each process is recorded, later ones are warm.
+ * The collected data can be read with "adb shell dumpsys activity service MapsArtSource".
+ */
+public class StartupMetrics {
+    private static final String TAG = StartupMetrics.class.getSimpleName();
+
+    private static long sProcessStart;
+    private static long sApplicationCreateMillis = -1;
+    private static long sFirstFrameMillis = -1;
+    private static long sFirstFrameSinceCreateMillis = -1;
+    private static long sThemesLoadMillis = -1;
+    private static long sThemesReadyMillis = -1;
+
+    /**
+     * To be called as early as possible, when the application class is loaded
+     */
+    public static synchronized void onProcessStart() {
+        sProcessStart = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @param start the value of {@link #now()} at the beginning of Application.onCreate
+     */
+    public static synchronized void onApplicationCreated(long start) {
+        sApplicationCreateMillis = now() - start;
+        if (BuildConfig.DEBUG) Log.d(TAG, "Application created in " + sApplicationCreateMillis + "ms");
+    }
+
+    /**
+     * @param activityStart the value of {@link #now()} at the beginning of Activity.onCreate
+     */
+    public static synchronized void onFirstFrame(long activityStart) {
+        if (sFirstFrameMillis >= 0) {
+            return;
+        }
+        long now = now();
+        sFirstFrameMillis = now - sProcessStart;
+        sFirstFrameSinceCreateMillis = now - activityStart;
+        if (BuildConfig.DEBUG) Log.d(TAG, "First frame after " + sFirstFrameMillis + "ms, "
+                                          + sFirstFrameSinceCreateMillis + "ms after onCreate");
+    }
+
+    /**
+     * @param loadStart the value of {@link #now()} before the themes registry was loaded
+     */
+    public static synchronized void onThemesLoaded(long loadStart) {
+        if (sThemesLoadMillis >= 0) {
+            return;
+        }
+        long now = now();
+        sThemesLoadMillis = now - loadStart;
+        sThemesReadyMillis = now - sProcessStart;
+        if (BuildConfig.DEBUG) Log.d(TAG, "Themes loaded in " + sThemesLoadMillis + "ms");
+    }
+
+    public static long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    public static synchronized void dump(PrintWriter writer) {
+        writer.println("Startup (ms, -1 if not measured in this process):");
+        writer.println("  application_create: " + sApplicationCreateMillis);
+        writer.println("  settings_first_frame: " + sFirstFrameMillis);
+        writer.println("  settings_first_frame_since_create: " + sFirstFrameSinceCreateMillis);
+        writer.println("  themes_load: " + sThemesLoadMillis);
+        writer.println("  themes_ready: " + sThemesReadyMillis);
+    }
+}
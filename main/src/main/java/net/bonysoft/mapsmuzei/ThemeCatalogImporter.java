@@ -0,0 +1,141 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Imports a catalog of themes from JSON, streaming it into the binary {@link ThemeCatalog} one theme at a time.
+ * The catalog is an array of themes like:
+ * <pre>
+ * [{"name": "Midnight", "mapType": "roadmap", "styles": [...]}, ...]
+ * </pre>
+ * Each style is either a Static Maps style string ("feature:water%7Ccolor:0x000000") or a Maps JavaScript API
+ * style object ({"featureType": "water", "stylers": [{"color": "#000000"}]}), which is converted.
+ */
+public class ThemeCatalogImporter {
+    private static final String TAG = ThemeCatalogImporter.class.getSimpleName();
+
+    private static final String SEPARATOR = "%7C";
+
+    /**
+     * Import the catalog, replacing the one imported before, if any
+     * @return the number of imported themes
+     * @throws IOException if the catalog can't be read or is malformed. The previous catalog is kept
+     */
+    public static int importCatalog(Context context, InputStream in) throws IOException {
+        File target = MapThemeRegistry.getCatalogFile(context);
+        ThemeCatalogWriter writer = new ThemeCatalogWriter(target);
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readTheme(reader, writer);
+            }
+            reader.endArray();
+            writer.finish();
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader for unexpected tokens
+            throw new IOException("Malformed theme catalog", e);
+        }
+        finally {
+            writer.close();
+            reader.close();
+        }
+        MapThemeRegistry.reload();
+        if (BuildConfig.DEBUG) Log.d(TAG, "Imported " + writer.getCount() + " themes");
+        return writer.getCount();
+    }
+
+    private static void readTheme(JsonReader reader, ThemeCatalogWriter writer) throws IOException {
+        String name = null;
+        int mode = MapTheme.MODE_MAP;
+        List<String> styles = new ArrayList<String>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if ("name".equals(key)) {
+                name = reader.nextString();
+            }
+            else if ("mapType".equals(key)) {
+                mode = MapTheme.getMapTypeIdFromString(reader.nextString());
+            }
+            else if ("styles".equals(key)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String style = reader.peek() == JsonToken.STRING ? reader.nextString() : readStyleObject(reader);
+                    if (style != null) {
+                        styles.add(style);
+                    }
+                }
+                reader.endArray();
+            }
+            else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        writer.add(name != null ? name : "Imported " + (writer.getCount() + 1), mode, styles);
+    }
+
+    /**
+     * Convert a Maps JavaScript API style object into a Static Maps style
+     * @return the style, or null if it has no stylers
+     */
+    private static String readStyleObject(JsonReader reader) throws IOException {
+        StringBuilder selector = new StringBuilder();
+        StringBuilder rules = new StringBuilder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if ("featureType".equals(key)) {
+                selector.append("feature:").append(reader.nextString()).append(SEPARATOR);
+            }
+            else if ("elementType".equals(key)) {
+                selector.append("element:").append(reader.nextString()).append(SEPARATOR);
+            }
+            else if ("stylers".equals(key)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String rule = reader.nextName();
+                        String value;
+                        if (reader.peek() == JsonToken.BOOLEAN) {
+                            value = String.valueOf(reader.nextBoolean());
+                        }
+                        else if (reader.peek() == JsonToken.STRING || reader.peek() == JsonToken.NUMBER) {
+                            value = reader.nextString();
+                        }
+                        else {
+                            reader.skipValue();
+                            continue;
+                        }
+                        if (value.startsWith("#")) {
+                            value = "0x" + value.substring(1);
+                        }
+                        if (rules.length() > 0) {
+                            rules.append(SEPARATOR);
+                        }
+                        rules.append(rule).append(':').append(value);
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            }
+            else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return rules.length() > 0 ? selector.append(rules).toString() : null;
+    }
+}
@@ -0,0 +1,69 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * Adapter for the map type spinner: the standard and bundled themes, followed by the imported ones. The names
+ * of the imported themes are read from the catalog only when their row is shown. The registry is loaded by the
+ * caller, off the main thread
+ */
+public class ThemeSpinnerAdapter extends BaseAdapter {
+
+    private final Context context;
+    private final String[] bundledTitles;
+    private MapThemeRegistry registry;
+
+    public ThemeSpinnerAdapter(Context context, MapThemeRegistry registry) {
+        this.context = context;
+        this.bundledTitles = context.getResources().getStringArray(R.array.map_types_titles);
+        this.registry = registry;
+    }
+
+    /**
+     * Show the themes of a registry loaded again, e.g. after an import
+     */
+    public void setRegistry(MapThemeRegistry registry) {
+        this.registry = registry;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return registry.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        if (position < bundledTitles.length) {
+            return bundledTitles[position];
+        }
+        return registry.getImportedName(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        return bind(position, convertView, parent, android.R.layout.simple_spinner_item);
+    }
+
+    @Override
+    public View getDropDownView(int position, View convertView, ViewGroup parent) {
+        return bind(position, convertView, parent, android.R.layout.simple_spinner_dropdown_item);
+    }
+
+    private View bind(int position, View convertView, ViewGroup parent, int layout) {
+        TextView view = (TextView) (convertView != null ? convertView
+                                                        : LayoutInflater.from(context).inflate(layout, parent, false));
+        view.setText(getItem(position));
+        return view;
+    }
+}
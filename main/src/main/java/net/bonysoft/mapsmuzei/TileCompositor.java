@@ -0,0 +1,201 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Alternative renderer which builds the wallpaper locally from standard web-mercator tiles, instead of asking
+ * the Static Maps API for a single image. Tiles are kept in a disk cache, so nearby locations share most of them.
+ */
+public class TileCompositor {
+    private static final String TAG = TileCompositor.class.getSimpleName();
+
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int BACKGROUND_COLOR = Color.rgb(0xf2, 0xef, 0xe9);
+
+    private static TileCompositor sInstance;
+
+    private final ImageCache tiles;
+    private final ImageCache images;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_DOWNLOADS);
+
+    // Reused between renders, so that compositing does not allocate a new full size bitmap every time
+    private Bitmap output;
+    private Bitmap tileBuffer;
+
+    public static synchronized TileCompositor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileCompositor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TileCompositor(Context context) {
+        tiles = ImageCache.getTilesInstance(context);
+        images = ImageCache.getInstance(context);
+        prefs = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /**
+     * @return the tile server, {@link TileServerProvider#DEFAULT_URL_TEMPLATE} unless replaced with
+     * {@link Constants#PREF_TILE_URL_TEMPLATE}, e.g. to use a local server while testing
+     */
+    public String getUrlTemplate() {
+        return prefs.getString(Constants.PREF_TILE_URL_TEMPLATE, TileServerProvider.DEFAULT_URL_TEMPLATE);
+    }
+
+    /**
+     * @return the key the map would be rendered with, see {@link #render}
+     */
+    public static String getKey(TileServerProvider provider, float latitude, float longitude, int zoom,
+                                ImageSpec spec) {
+        return ImageCache.keyFor(getRequest(provider, latitude, longitude, zoom, spec));
+    }
+
+    private static String getRequest(TileServerProvider provider, float latitude, float longitude, int zoom,
+                                     ImageSpec spec) {
+        return provider.getUrlTemplate() + "|" + latitude + "," + longitude + "|" + getTileZoom(zoom, spec)
+               + "|" + spec.getPixels();
+    }
+
+    private static int getTileZoom(int zoom, ImageSpec spec) {
+        return zoom + (spec.scale > 1 ? 1 : 0);
+    }
+
+    /**
+     * Render the map centred in the given location into the image cache
+     * @param provider the tile server
+     * @param spec the size of the map. The format is ignored, tiles are always composited into a PNG image
+     * @return the key of the rendered image in the {@link ImageCache}
+     * @throws IOException if some of the tiles could not be downloaded
+     */
+    public synchronized String render(TileServerProvider provider, float latitude, float longitude, int zoom,
+                                      ImageSpec spec) throws IOException {
+        final int tileZoom = getTileZoom(zoom, spec);
+        final int outputSize = spec.getPixels();
+        String request = getRequest(provider, latitude, longitude, zoom, spec);
+
+        String key = ImageCache.keyFor(request);
+        if (images.contains(key)) {
+            images.touch(key);
+            return key;
+        }
+
+        long start = System.currentTimeMillis();
+        double left = MapGrid.longitudeToPixelX(longitude, tileZoom) - outputSize / 2d;
+        double top = MapGrid.latitudeToPixelY(latitude, tileZoom) - outputSize / 2d;
+        int firstX = (int) Math.floor(left / MapGrid.TILE_SIZE);
+        int lastX = (int) Math.floor((left + outputSize - 1) / MapGrid.TILE_SIZE);
+        int firstY = (int) Math.floor(top / MapGrid.TILE_SIZE);
+        int lastY = (int) Math.floor((top + outputSize - 1) / MapGrid.TILE_SIZE);
+        int tilesPerSide = 1 << tileZoom;
+
+        List<int[]> positions = new ArrayList<int[]>();
+        List<Future<String>> downloads = new ArrayList<Future<String>>();
+        for (int y = firstY; y <= lastY; y++) {
+            if (y < 0 || y >= tilesPerSide) {
+                continue;
+            }
+            for (int x = firstX; x <= lastX; x++) {
+                final String url = provider.buildTileUrl(tileZoom, ((x % tilesPerSide) + tilesPerSide) % tilesPerSide, y);
+                positions.add(new int[]{x, y});
+                downloads.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return tiles.fetch(url);
+                    }
+                }));
+            }
+        }
+
+        Canvas canvas = new Canvas(obtainOutput(outputSize));
+        canvas.drawColor(BACKGROUND_COLOR);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        for (int i = 0; i < downloads.size(); i++) {
+            String tileKey = await(downloads, i);
+            Bitmap tile = decodeTile(tileKey, options);
+            if (tile != null) {
+                int[] position = positions.get(i);
+                canvas.drawBitmap(tile,
+                                  (float) (position[0] * MapGrid.TILE_SIZE - left),
+                                  (float) (position[1] * MapGrid.TILE_SIZE - top),
+                                  null);
+            }
+        }
+
+        key = images.put(request, new ImageCache.ImageWriter() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                output.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+        });
+        if (BuildConfig.DEBUG) Log.d(TAG, "Composited " + downloads.size() + " tiles in " + (System.currentTimeMillis() - start) + "ms");
+        return key;
+    }
+
+    private String await(List<Future<String>> downloads, int index) throws IOException {
+        try {
+            return downloads.get(index).get();
+        } catch (InterruptedException e) {
+            cancelAll(downloads);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading tiles");
+        } catch (ExecutionException e) {
+            cancelAll(downloads);
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    private static void cancelAll(List<Future<String>> downloads) {
+        for (Future<String> download : downloads) {
+            download.cancel(true);
+        }
+    }
+
+    /**
+     * Decode a tile reusing the same bitmap for all the tiles
+     */
+    private Bitmap decodeTile(String tileKey, BitmapFactory.Options options) {
+        String path = tiles.getFile(tileKey).getAbsolutePath();
+        options.inBitmap = tileBuffer;
+        try {
+            tileBuffer = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // The tile has a different size from the reused bitmap
+            options.inBitmap = null;
+            tileBuffer = BitmapFactory.decodeFile(path, options);
+        }
+        if (tileBuffer == null) {
+            Log.w(TAG, "Unable to decode tile " + tileKey);
+        }
+        return tileBuffer;
+    }
+
+    private Bitmap obtainOutput(int outputSize) {
+        if (output == null || output.getWidth() != outputSize) {
+            if (output != null) {
+                output.recycle();
+            }
+            output = Bitmap.createBitmap(outputSize, outputSize, Bitmap.Config.ARGB_8888);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,38 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import com.littlefluffytoys.littlefluffylocationlibrary.LocationInfo;
+import com.littlefluffytoys.littlefluffylocationlibrary.LocationLibraryConstants;
+
+/**
+ * Receives the fixes collected by the location library: brings the next refresh forward if the device starts
+ * moving after being stationary, and adds the fixes to the track, if the track overlay is enabled
+ */
+public class TrackReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        LocationInfo info = (LocationInfo) intent.getSerializableExtra(LocationLibraryConstants.LOCATION_BROADCAST_EXTRA_LOCATIONINFO);
+        if (info == null) {
+            info = new LocationInfo(context);
+        }
+
+        long refreshAt = new RefreshScheduler(context, prefs).onLocationChanged(info.lastLat, info.lastLong);
+        if (refreshAt > 0) {
+            Intent refresh = new Intent(MapsArtSource.ACTION_MOVED);
+            refresh.setClass(context, MapsArtSource.class);
+            refresh.putExtra(MapsArtSource.EXTRA_REFRESH_AT, refreshAt);
+            context.startService(refresh);
+        }
+
+        if (!prefs.getBoolean(Constants.PREF_SHOW_TRACK, Constants.PREF_SHOW_TRACK_DEFAULT)) {
+            return;
+        }
+        TrackRecorder.getInstance(context).record(info.lastLat, info.lastLong, info.lastLocationUpdateTimestamp);
+    }
+}
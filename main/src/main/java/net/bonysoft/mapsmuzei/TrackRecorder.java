@@ -0,0 +1,118 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the recent track of the device, recorded from the fixes collected by the location library, and encodes
+ * it as an overlay for the map. The track is persisted to a ring file of fixed-size records: each fix writes its
+ * own record alone, overwriting the oldest one when the ring is full.
+ */
+public class TrackRecorder {
+    private static final String TAG = TrackRecorder.class.getSimpleName();
+
+    private static final String FILE_NAME = "track.ring";
+    private static final int CAPACITY = 4096;
+
+    /**
+     * Only the fixes of the last day are drawn
+     */
+    public static final long MAX_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static TrackRecorder sInstance;
+
+    private final File file;
+    private final TrackBuffer track = new TrackBuffer(CAPACITY);
+    private final TrackOverlay overlay = new TrackOverlay();
+    private final byte[] record = new byte[TrackBuffer.RECORD_SIZE];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+    private int nextSlot;
+
+    public static synchronized TrackRecorder getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TrackRecorder(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TrackRecorder(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    /**
+     * Add a fix to the track. Invalid fixes, and fixes older than the last recorded one, are ignored
+     */
+    public synchronized void record(float latitude, float longitude, long timestamp) {
+        if (timestamp <= 0 || !MapLocations.isValid(latitude, longitude)
+            || (track.size() > 0 && timestamp <= track.getTimestamp(track.size() - 1))) {
+            return;
+        }
+        track.add(latitude, longitude, timestamp);
+        save(latitude, longitude, timestamp);
+    }
+
+    /**
+     * @param maxLength the maximum length of the encoded path, see {@link StaticMapUrl#getPathBudget(String)}
+     * @return the encoded track of the last day, or null if there is nothing to draw
+     */
+    public synchronized String encodeRecentTrack(int zoom, int maxLength) {
+        return overlay.encode(track, System.currentTimeMillis() - MAX_AGE_MILLIS, zoom, maxLength);
+    }
+
+    public synchronized void clear() {
+        track.clear();
+        nextSlot = 0;
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Unable to delete " + file);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                byte[] ring = new byte[(int) Math.min(in.length(), track.capacity() * TrackBuffer.RECORD_SIZE)];
+                in.readFully(ring);
+                nextSlot = track.readRing(ByteBuffer.wrap(ring));
+            }
+            finally {
+                in.close();
+            }
+            if (BuildConfig.DEBUG) Log.d(TAG, "Loaded " + track.size() + " fixes");
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to load the track", e);
+            track.clear();
+            nextSlot = 0;
+        }
+    }
+
+    /**
+     * Write the new fix over the oldest record of the ring
+     */
+    private void save(float latitude, float longitude, long timestamp) {
+        recordBuffer.clear();
+        TrackBuffer.putRecord(recordBuffer, latitude, longitude, timestamp);
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                out.seek((long) nextSlot * TrackBuffer.RECORD_SIZE);
+                out.write(record);
+            }
+            finally {
+                out.close();
+            }
+            nextSlot = (nextSlot + 1) % track.capacity();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save the track", e);
+        }
+    }
+}
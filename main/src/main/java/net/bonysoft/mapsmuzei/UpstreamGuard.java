@@ -0,0 +1,113 @@
+package net.bonysoft.mapsmuzei;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Circuit breaker and daily request budget for one of the services we depend on (Static Maps, the Geocoder,
+ * the tile server, the OpenStreetMap static map server), see {@link UpstreamPolicy}. The state is persisted, so that it survives the process being killed between refreshes.
+ * The budget of the Static Maps API is kept per API key.
+ */
+public class UpstreamGuard {
+    private static final String TAG = UpstreamGuard.class.getSimpleName();
+
+    private static final String PREFS_NAME = "upstreams";
+    private static final String KEY_FAILURES = "_failures";
+    private static final String KEY_OPEN_UNTIL = "_open_until";
+    private static final String KEY_TOKENS = "_tokens";
+    private static final String KEY_LAST_REFILL = "_last_refill";
+
+    private static UpstreamGuard sStaticMapsInstance;
+    private static UpstreamGuard sGeocoderInstance;
+    private static UpstreamGuard sTilesInstance;
+    private static UpstreamGuard sOsmStaticInstance;
+
+    private final String name;
+    private final SharedPreferences prefs;
+    private final UpstreamPolicy policy;
+
+    public static synchronized UpstreamGuard getStaticMapsInstance(Context context) {
+        if (sStaticMapsInstance == null) {
+            sStaticMapsInstance = new UpstreamGuard(context, "static_maps_" + ImageCache.keyFor(Config.API_KEY).substring(0, 8),
+                                                    UpstreamPolicy.STATIC_MAPS_DAILY_BUDGET);
+        }
+        return sStaticMapsInstance;
+    }
+
+    public static synchronized UpstreamGuard getGeocoderInstance(Context context) {
+        if (sGeocoderInstance == null) {
+            sGeocoderInstance = new UpstreamGuard(context, "geocoder", UpstreamPolicy.GEOCODER_DAILY_BUDGET);
+        }
+        return sGeocoderInstance;
+    }
+
+    public static synchronized UpstreamGuard getTilesInstance(Context context) {
+        if (sTilesInstance == null) {
+            sTilesInstance = new UpstreamGuard(context, "tiles", UpstreamPolicy.TILES_DAILY_BUDGET);
+        }
+        return sTilesInstance;
+    }
+
+    public static synchronized UpstreamGuard getOsmStaticInstance(Context context) {
+        if (sOsmStaticInstance == null) {
+            sOsmStaticInstance = new UpstreamGuard(context, "osm_static", UpstreamPolicy.OSM_STATIC_DAILY_BUDGET);
+        }
+        return sOsmStaticInstance;
+    }
+
+    private UpstreamGuard(Context context, String name, int dailyBudget) {
+        this.name = name;
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.policy = new UpstreamPolicy(name, dailyBudget,
+                                         prefs.getInt(name + KEY_FAILURES, 0),
+                                         prefs.getLong(name + KEY_OPEN_UNTIL, 0),
+                                         prefs.getFloat(name + KEY_TOKENS, dailyBudget),
+                                         prefs.getLong(name + KEY_LAST_REFILL, System.currentTimeMillis()));
+    }
+
+    /**
+     * To be called before each request
+     * @throws UpstreamUnavailableException if the breaker is open or the daily budget has been used
+     */
+    public void acquire() throws UpstreamUnavailableException {
+        try {
+            policy.acquire(System.currentTimeMillis());
+        }
+        finally {
+            save();
+        }
+    }
+
+    public void onSuccess() {
+        policy.onSuccess();
+        save();
+    }
+
+    /**
+     * Record a failed request, see {@link UpstreamPolicy#onFailure(IOException, long)}
+     */
+    public void onFailure(IOException e) {
+        policy.onFailure(e, System.currentTimeMillis());
+        save();
+        if (BuildConfig.DEBUG) Log.d(TAG, name + " failure #" + policy.getFailures() + ", open until " + policy.getOpenUntil());
+    }
+
+    /**
+     * @return the earliest time at which a request could be allowed, now if the breaker is closed
+     */
+    public long getRetryAt() {
+        return policy.getRetryAt(System.currentTimeMillis());
+    }
+
+    private void save() {
+        prefs.edit()
+             .putInt(name + KEY_FAILURES, policy.getFailures())
+             .putLong(name + KEY_OPEN_UNTIL, policy.getOpenUntil())
+             .putFloat(name + KEY_TOKENS, (float) policy.getTokens())
+             .putLong(name + KEY_LAST_REFILL, policy.getLastRefill())
+             .apply();
+    }
+}
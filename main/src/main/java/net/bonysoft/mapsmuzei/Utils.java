@@ -1,8 +1,13 @@
 package net.bonysoft.mapsmuzei;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.util.DisplayMetrics;
 
 public class Utils {
 
@@ -11,4 +16,41 @@ public class Utils {
         NetworkInfo mWifi = connManager.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
         return mWifi != null && mWifi.isConnected();
     }
+
+    /**
+     * @return true if the device is connected to a network which is not metered (e.g. most WiFi networks)
+     */
+    public static boolean isUnmeteredConnection(Context context) {
+        ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = connManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected() && !connManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Choose the size and format of the map image for this device
+     * @param isDataSaver true if the user asked to use less data
+     * @param mapMode the map mode of the theme, one of the MapTheme.MODE_ constants
+     */
+    public static ImageSpec getImageSpec(Context context, boolean isDataSaver, int mapMode) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ConnectivityManager connManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        boolean isPhotographic = mapMode == MapTheme.MODE_SATELLITE || mapMode == MapTheme.MODE_HYBRID;
+        return ImageSpec.choose(Math.max(metrics.widthPixels, metrics.heightPixels),
+                                metrics.density,
+                                activityManager.getMemoryClass(),
+                                connManager.isActiveNetworkMetered(),
+                                isDataSaver,
+                                isPhotographic);
+    }
+
+    public static boolean isCharging(Context context) {
+        // Sticky broadcast, no receiver is actually registered
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        return status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
 }